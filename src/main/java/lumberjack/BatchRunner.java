@@ -0,0 +1,409 @@
+package lumberjack;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Command line runner that solves a batch of forests.
+ *
+ * Forests are read, parsed, solved and written by pipeline stages that run
+ * concurrently and hand jobs over through bounded queues, so reading and
+ * parsing the next forests overlaps with solving, and a slow stage holds
+ * back the ones before it instead of buffering the whole batch. Solving
+ * runs on several threads, and results are written in the order they
+ * complete, one line per forest:
+ *
+ * <pre>
+ *   file  distance  milliseconds
+ * </pre>
+ *
+ * where distance is -1 if the forest can't be leveled, or `error: message`
+ * in place of the distance if the forest couldn't be read or solved. The
+ * solvers run without printing progress, which would interleave across
+ * threads and with the results. Inputs are binary forest files (see
+ * ForestFile), recognized by their magic number, or text matrices (see
+ * ForestParser), which start at a fixed position.
+ *
+ * Usage: {@code BatchRunner [-j threads] [-q capacity] [-s x,y] [-o file]
+ * input...}; directories are expanded to the files they contain, in name
+ * order. A summary with throughput and latency percentiles is printed to
+ * standard error at the end.
+ */
+class BatchRunner {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private final int threads;
+    private final int capacity;
+    private final Coord textStart;
+
+    public BatchRunner() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CAPACITY, new Coord(0, 0));
+    }
+
+    /**
+     * Create a runner that solves on `threads` threads, with at most
+     * `capacity` jobs waiting between two stages. Text forests start at
+     * `textStart`.
+     */
+    public BatchRunner(int threads, int capacity, Coord textStart) {
+        if (threads < 1 || capacity < 1) {
+            throw new IllegalArgumentException("threads and capacity must be positive");
+        }
+        this.threads = threads;
+        this.capacity = capacity;
+        this.textStart = textStart;
+    }
+
+    /**
+     * Solve every forest in `inputs`, writing a line for each to `out` as
+     * it completes.
+     *
+     * @throws IOException if writing to `out` fails; forests that fail are
+     *     reported in the output instead
+     */
+    public Summary run(List<File> inputs, Writer out) throws IOException {
+        BlockingQueue<Job> read = new ArrayBlockingQueue<>(this.capacity);
+        BlockingQueue<Job> parsed = new ArrayBlockingQueue<>(this.capacity);
+        BlockingQueue<Job> solved = new ArrayBlockingQueue<>(this.capacity);
+        Summary summary = new Summary();
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads + 3);
+        ExecutorCompletionService<Void> stages = new ExecutorCompletionService<>(pool);
+        stages.submit(() -> {
+            this.readStage(inputs, read);
+            return null;
+        });
+        stages.submit(() -> {
+            this.parseStage(read, parsed);
+            return null;
+        });
+        for (int t = 0; t < this.threads; t++) {
+            stages.submit(() -> {
+                BatchRunner.solveStage(parsed, solved);
+                return null;
+            });
+        }
+        stages.submit(() -> {
+            this.writeStage(solved, out, summary);
+            return null;
+        });
+
+        try {
+            for (int s = 0; s < this.threads + 3; s++) {
+                stages.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            // a failed stage would leave the others blocked on its queues
+            pool.shutdownNow();
+        }
+        summary.elapsed = System.nanoTime() - summary.started;
+        return summary;
+    }
+
+    // expand the inputs and load each forest; binary files are mapped, text
+    // is read into memory for the parser
+    private void readStage(List<File> inputs, BlockingQueue<Job> read)
+            throws InterruptedException {
+        for (File f : BatchRunner.expand(inputs)) {
+            Job job = new Job(f);
+            try {
+                if (BatchRunner.isForestFile(f)) {
+                    job.state = ForestFile.read(f).toState();
+                } else {
+                    job.text = Files.readAllBytes(f.toPath());
+                }
+            } catch (IOException e) {
+                job.error = e.getMessage();
+            }
+            read.put(job);
+        }
+        read.put(Job.END);
+    }
+
+    private void parseStage(BlockingQueue<Job> read, BlockingQueue<Job> parsed)
+            throws InterruptedException {
+        for (Job job = read.take(); job != Job.END; job = read.take()) {
+            if (job.text != null) {
+                try {
+                    Grid grid = ForestParser.parse(
+                        Channels.newChannel(new ByteArrayInputStream(job.text)));
+                    if (!grid.onGrid(this.textStart)) {
+                        throw new ForestFormatException(
+                            "start position " + this.textStart + " is not on grid");
+                    }
+                    job.state = new State(grid, this.textStart);
+                } catch (IOException e) {
+                    job.error = e.getMessage();
+                }
+                job.text = null;
+            }
+            parsed.put(job);
+        }
+        // one end marker for each solver
+        for (int t = 0; t < this.threads; t++) {
+            parsed.put(Job.END);
+        }
+    }
+
+    private static void solveStage(BlockingQueue<Job> parsed, BlockingQueue<Job> solved)
+            throws InterruptedException {
+        for (Job job = parsed.take(); job != Job.END; job = parsed.take()) {
+            if (job.error == null) {
+                long start = System.nanoTime();
+                try {
+                    job.distance = new Solver(job.state).setLog(null).solve();
+                } catch (RuntimeException e) {
+                    job.error = e.toString();
+                }
+                job.solveNanos = System.nanoTime() - start;
+                job.state = null;
+            }
+            solved.put(job);
+        }
+        solved.put(Job.END);
+    }
+
+    private void writeStage(BlockingQueue<Job> solved, Writer out, Summary summary)
+            throws InterruptedException, IOException {
+        int ends = 0;
+        while (ends < this.threads) {
+            Job job = solved.take();
+            if (job == Job.END) {
+                ends++;
+                continue;
+            }
+            if (job.error != null) {
+                out.write(String.format(Locale.ROOT, "%s\terror: %s%n", job.file, job.error));
+                summary.failed++;
+            } else {
+                out.write(String.format(Locale.ROOT, "%s\t%d\t%.3f%n",
+                                        job.file, job.distance, job.solveNanos / 1e6));
+                summary.add(job.solveNanos, System.nanoTime() - job.created);
+            }
+            out.flush();
+        }
+    }
+
+    // files of the inputs, with directories replaced by their files in name
+    // order
+    static List<File> expand(List<File> inputs) {
+        List<File> files = new ArrayList<>();
+        for (File f : inputs) {
+            File[] children = f.listFiles();
+            if (children == null) {
+                files.add(f);
+                continue;
+            }
+            Arrays.sort(children);
+            for (File c : children) {
+                if (c.isFile()) {
+                    files.add(c);
+                }
+            }
+        }
+        return files;
+    }
+
+    // whether `f` starts with the magic number of a binary forest file
+    private static boolean isForestFile(File f) throws IOException {
+        if (f.length() < ForestFile.HEADER_BYTES) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            return Integer.reverseBytes(in.readInt()) == ForestFile.MAGIC;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int capacity = DEFAULT_CAPACITY;
+        Coord start = new Coord(0, 0);
+        File output = null;
+        List<File> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                  case "-j":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                  case "-q":
+                    capacity = Integer.parseInt(args[++i]);
+                    break;
+                  case "-s":
+                    String[] xy = args[++i].split(",");
+                    start = new Coord(Integer.parseInt(xy[0].trim()),
+                                      Integer.parseInt(xy[1].trim()));
+                    break;
+                  case "-o":
+                    output = new File(args[++i]);
+                    break;
+                  default:
+                    inputs.add(new File(args[i]));
+                }
+            }
+        } catch (RuntimeException e) {
+            inputs.clear();
+        }
+        if (inputs.isEmpty() || threads < 1 || capacity < 1) {
+            System.err.println(
+                "usage: BatchRunner [-j threads] [-q capacity] [-s x,y] [-o file] input...");
+            System.exit(2);
+        }
+
+        BatchRunner runner = new BatchRunner(threads, capacity, start);
+        Summary summary;
+        try (Writer out = output != null
+                ? new FileWriter(output)
+                : new OutputStreamWriter(System.out)) {
+            summary = runner.run(inputs, out);
+        }
+        summary.print(System.err);
+        if (summary.getFailed() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A forest moving through the pipeline.
+     */
+    private static final class Job {
+        // marks the end of a stage's output
+        static final Job END = new Job(null);
+
+        final File file;
+        final long created = System.nanoTime();
+        byte[] text;
+        State state;
+        // why the forest couldn't be read or solved
+        String error;
+        int distance;
+        long solveNanos;
+
+        Job(File file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Counts and timings of a batch. Latency is measured from when a forest
+     * is picked up by the reader until its result is written.
+     */
+    static final class Summary {
+        private final long started = System.nanoTime();
+        private long elapsed;
+        private int failed;
+        private long[] solve = new long[16];
+        private long[] latency = new long[16];
+        private int solved;
+
+        private void add(long solveNanos, long latencyNanos) {
+            if (this.solved == this.solve.length) {
+                this.solve = Arrays.copyOf(this.solve, 2 * this.solved);
+                this.latency = Arrays.copyOf(this.latency, 2 * this.solved);
+            }
+            this.solve[this.solved] = solveNanos;
+            this.latency[this.solved] = latencyNanos;
+            this.solved++;
+        }
+
+        /**
+         * Return the number of forests that were solved, including those
+         * that can't be leveled.
+         */
+        public int getSolved() {
+            return this.solved;
+        }
+
+        /**
+         * Return the number of forests that couldn't be read or solved.
+         */
+        public int getFailed() {
+            return this.failed;
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsed;
+        }
+
+        /**
+         * Return the number of forests solved per second.
+         */
+        public double throughput() {
+            return this.elapsed > 0 ? this.solved * 1e9 / this.elapsed : 0;
+        }
+
+        /**
+         * Return the `p`th percentile (0 to 100) of end to end latency in
+         * nanoseconds, or 0 if nothing was solved.
+         */
+        public long latencyPercentile(double p) {
+            return Summary.percentile(this.latency, this.solved, p);
+        }
+
+        /**
+         * Return the `p`th percentile (0 to 100) of solve time in
+         * nanoseconds, or 0 if nothing was solved.
+         */
+        public long solvePercentile(double p) {
+            return Summary.percentile(this.solve, this.solved, p);
+        }
+
+        // nearest rank percentile of the first n values
+        private static long percentile(long[] values, int n, double p) {
+            if (n == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(values, n);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(p / 100 * n);
+            return sorted[Math.max(0, Math.min(n, rank) - 1)];
+        }
+
+        public void print(PrintStream out) {
+            out.println(String.format(Locale.ROOT,
+                                      "%d solved, %d failed in %.3f s (%.1f forests/s)",
+                                      this.solved, this.failed,
+                                      this.elapsed / 1e9, this.throughput()));
+            double[] ps = {50, 90, 99, 100};
+            StringBuilder lat = new StringBuilder("latency ms:");
+            StringBuilder sol = new StringBuilder("solve ms:  ");
+            for (double p : ps) {
+                String name = p == 100 ? "max" : String.format(Locale.ROOT, "p%.0f", p);
+                lat.append(String.format(Locale.ROOT, " %s=%.3f", name,
+                                         this.latencyPercentile(p) / 1e6));
+                sol.append(String.format(Locale.ROOT, " %s=%.3f", name,
+                                         this.solvePercentile(p) / 1e6));
+            }
+            out.println(lat);
+            out.println(sol);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package lumberjack;
+
+/**
+ * Predicate over a grid cell given by its flat index and its value.
+ *
+ * This is the allocation free counterpart of {@code Predicate<Coord3>} used
+ * by the hot path finding loops.
+ */
+@FunctionalInterface
+interface CellPredicate {
+
+    /**
+     * Return true if the cell at flat index `index` with value `value`
+     * satisfies the predicate.
+     */
+    boolean test(int index, int value);
+}
@@ -0,0 +1,399 @@
+package lumberjack;
+
+import java.util.Arrays;
+
+/**
+ * Flat backing store for the values of a Grid, indexed by flat index.
+ *
+ * Grids pick the narrowest store that holds their values: one byte per cell
+ * for values in [-128, 127], which covers most forests, two bytes for
+ * values in [-32768, 32767], and four bytes otherwise. A store is widened
+ * when a value that doesn't fit is written.
+ */
+abstract class CellStore {
+
+    /**
+     * Return the number of cells.
+     */
+    public abstract int size();
+
+    public abstract int get(int index);
+
+    /**
+     * Store `value` at `index`; the value must fit, see {@link #fits(int)}.
+     */
+    public abstract void set(int index, int value);
+
+    /**
+     * Return true if `value` can be stored.
+     */
+    public abstract boolean fits(int value);
+
+    /**
+     * Return an independent copy of this store.
+     */
+    public abstract CellStore copy();
+
+    /**
+     * Return the backing int array if values are stored as plain ints,
+     * otherwise null.
+     *
+     * Scans use the array directly instead of copying rows out.
+     */
+    public int[] intArray() {
+        return null;
+    }
+
+    /**
+     * Return the backing short array if values are stored as plain shorts,
+     * otherwise null.
+     */
+    public short[] shortArray() {
+        return null;
+    }
+
+    /**
+     * Return the backing byte array if values are stored as plain bytes,
+     * otherwise null.
+     */
+    public byte[] byteArray() {
+        return null;
+    }
+
+    /**
+     * Return true if only non-zero cells are stored, so that scanning them
+     * with {@link #forEachNonZero(IntIntHashMap.EntryConsumer)} is cheaper
+     * than scanning every cell.
+     */
+    public boolean isSparse() {
+        return false;
+    }
+
+    /**
+     * Call `action` with the index and value of every non-zero cell; dense
+     * stores visit them in increasing index order.
+     */
+    public void forEachNonZero(IntIntHashMap.EntryConsumer action) {
+        for (int i = 0; i < this.size(); i++) {
+            int v = this.get(i);
+            if (v != 0) {
+                action.accept(i, v);
+            }
+        }
+    }
+
+    /**
+     * Return true if `other` has as many cells as this store and the same
+     * value in each, whatever the kind of either store. Two sparse stores
+     * only compare their non-zero cells.
+     */
+    public boolean sameCells(CellStore other) {
+        if (this.size() != other.size()) {
+            return false;
+        }
+        if (this.isSparse() && other.isSparse()) {
+            return this.nonZeroIn(other) && other.nonZeroIn(this);
+        }
+        for (int i = 0; i < this.size(); i++) {
+            if (this.get(i) != other.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // whether every non-zero cell of this store has the same value in `other`
+    private boolean nonZeroIn(CellStore other) {
+        boolean[] same = {true};
+        this.forEachNonZero((i, v) -> {
+            if (other.get(i) != v) {
+                same[0] = false;
+            }
+        });
+        return same[0];
+    }
+
+    /**
+     * Return a hash of the values of the store. Only non-zero cells count,
+     * each adding a mix of its index and value, so stores holding the same
+     * values hash alike whatever their kind, and sparse stores hash in time
+     * proportional to their features.
+     */
+    public int cellHash() {
+        int[] h = {0};
+        this.forEachNonZero((i, v) -> {
+            int x = i * 0x9E3779B9 + v;
+            x ^= x >>> 16;
+            x *= 0x85EBCA6B;
+            h[0] += x ^ (x >>> 13);
+        });
+        return h[0];
+    }
+
+    /**
+     * Copy {@code len} values starting at `from` into `dst` at `offset`.
+     *
+     * Grid feeds its row scans through this for stores without a backing
+     * array, and copyRow for every store, so array backed stores override
+     * it with a bulk copy.
+     */
+    public void copyRange(int from, int[] dst, int offset, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[offset + i] = this.get(from + i);
+        }
+    }
+
+    /**
+     * Return an empty (all zero) store of `size` cells wide enough for
+     * values in [min, max].
+     */
+    public static CellStore forRange(int size, int min, int max) {
+        if (Byte.MIN_VALUE <= min && max <= Byte.MAX_VALUE) {
+            return new ByteStore(size);
+        } else if (Short.MIN_VALUE <= min && max <= Short.MAX_VALUE) {
+            return new ShortStore(size);
+        } else {
+            return new IntStore(size);
+        }
+    }
+
+    /**
+     * Return a copy of this store widened so that it also holds `value`.
+     *
+     * The copy is of the same kind where the store supports wider values,
+     * and a heap store otherwise.
+     */
+    public CellStore widened(int value) {
+        CellStore res = value == (short) value
+            ? new ShortStore(this.size()) : new IntStore(this.size());
+        for (int i = 0; i < this.size(); i++) {
+            res.set(i, this.get(i));
+        }
+        return res;
+    }
+
+    /**
+     * Return a copy of this store with `size` cells, truncated or padded
+     * with zeros.
+     *
+     * The copy is of the same kind for the array backed stores, and a heap
+     * store at least as wide otherwise.
+     */
+    public CellStore resized(int size) {
+        CellStore res;
+        if (this.fits(Integer.MIN_VALUE)) {
+            res = new IntStore(size);
+        } else if (this.fits(Short.MIN_VALUE)) {
+            res = new ShortStore(size);
+        } else {
+            res = new ByteStore(size);
+        }
+        for (int i = 0; i < Math.min(size, this.size()); i++) {
+            res.set(i, this.get(i));
+        }
+        return res;
+    }
+
+    /**
+     * Release any resources held outside of the Java heap. The store must
+     * not be used afterwards.
+     */
+    public void close() {
+    }
+
+    /**
+     * One byte per cell.
+     */
+    static final class ByteStore extends CellStore {
+        private final byte[] values;
+
+        ByteStore(int size) {
+            this.values = new byte[size];
+        }
+
+        private ByteStore(byte[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return this.values.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return this.values[index];
+        }
+
+        @Override
+        public void set(int index, int value) {
+            this.values[index] = (byte) value;
+        }
+
+        @Override
+        public boolean fits(int value) {
+            return value == (byte) value;
+        }
+
+        @Override
+        public boolean sameCells(CellStore other) {
+            if (other instanceof ByteStore) {
+                return Arrays.equals(this.values, ((ByteStore) other).values);
+            }
+            return super.sameCells(other);
+        }
+
+        @Override
+        public CellStore copy() {
+            return new ByteStore(this.values.clone());
+        }
+
+        @Override
+        public byte[] byteArray() {
+            return this.values;
+        }
+
+        @Override
+        public void copyRange(int from, int[] dst, int offset, int len) {
+            // a plain widening loop, which the JIT vectorizes
+            byte[] src = this.values;
+            for (int i = 0; i < len; i++) {
+                dst[offset + i] = src[from + i];
+            }
+        }
+
+        @Override
+        public CellStore resized(int size) {
+            return new ByteStore(Arrays.copyOf(this.values, size));
+        }
+    }
+
+    /**
+     * Two bytes per cell.
+     */
+    static final class ShortStore extends CellStore {
+        private final short[] values;
+
+        ShortStore(int size) {
+            this.values = new short[size];
+        }
+
+        private ShortStore(short[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return this.values.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return this.values[index];
+        }
+
+        @Override
+        public void set(int index, int value) {
+            this.values[index] = (short) value;
+        }
+
+        @Override
+        public boolean fits(int value) {
+            return value == (short) value;
+        }
+
+        @Override
+        public boolean sameCells(CellStore other) {
+            if (other instanceof ShortStore) {
+                return Arrays.equals(this.values, ((ShortStore) other).values);
+            }
+            return super.sameCells(other);
+        }
+
+        @Override
+        public CellStore copy() {
+            return new ShortStore(this.values.clone());
+        }
+
+        @Override
+        public short[] shortArray() {
+            return this.values;
+        }
+
+        @Override
+        public void copyRange(int from, int[] dst, int offset, int len) {
+            short[] src = this.values;
+            for (int i = 0; i < len; i++) {
+                dst[offset + i] = src[from + i];
+            }
+        }
+
+        @Override
+        public CellStore resized(int size) {
+            return new ShortStore(Arrays.copyOf(this.values, size));
+        }
+    }
+
+    /**
+     * Four bytes per cell.
+     */
+    static final class IntStore extends CellStore {
+        private final int[] values;
+
+        IntStore(int size) {
+            this.values = new int[size];
+        }
+
+        private IntStore(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return this.values.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return this.values[index];
+        }
+
+        @Override
+        public void set(int index, int value) {
+            this.values[index] = value;
+        }
+
+        @Override
+        public boolean fits(int value) {
+            return true;
+        }
+
+        @Override
+        public boolean sameCells(CellStore other) {
+            if (other instanceof IntStore) {
+                return Arrays.equals(this.values, ((IntStore) other).values);
+            }
+            return super.sameCells(other);
+        }
+
+        @Override
+        public CellStore copy() {
+            return new IntStore(this.values.clone());
+        }
+
+        @Override
+        public CellStore resized(int size) {
+            return new IntStore(Arrays.copyOf(this.values, size));
+        }
+
+        @Override
+        public int[] intArray() {
+            return this.values;
+        }
+
+        @Override
+        public void copyRange(int from, int[] dst, int offset, int len) {
+            System.arraycopy(this.values, from, dst, offset, len);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package lumberjack;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Snapshot of a Solver search taken between two BFS steps, see
+ * {@link Solver#setCheckpoint(File, long)} and {@link Solver#resume(File)}.
+ *
+ * A checkpoint holds the initial forest and the frontier of paths. Paths
+ * are stored as the flat index and distance of each chop, so a checkpoint
+ * costs a few bytes per chop rather than a grid per state, and the states
+ * are rebuilt by replaying the chops on the initial forest.
+ *
+ * Before the final step no path has chopped every tree, so there is no
+ * best result to record yet; the final result is found from the frontier.
+ * States of earlier steps can never be seen again (every step chops one
+ * more tree), and the shortest known distance to each frontier state is
+ * that of its path, so the search needs nothing else to carry on.
+ */
+final class Checkpoint {
+
+    public static final int MAGIC = 0x4c4a434b; // "LJCK"
+    public static final int VERSION = 2;
+
+    private final State initial;
+    private final Set<Path> frontier;
+
+    private Checkpoint(State initial, Set<Path> frontier) {
+        this.initial = initial;
+        this.frontier = frontier;
+    }
+
+    public State getInitial() {
+        return this.initial;
+    }
+
+    public Set<Path> getFrontier() {
+        return this.frontier;
+    }
+
+    /**
+     * Write a checkpoint of the search from `initial` with the given
+     * frontier to `file`.
+     *
+     * The checkpoint is written next to `file` and moved into place, so
+     * `file` always holds a complete checkpoint.
+     */
+    public static void write(File file, State initial, Set<Path> frontier) throws IOException {
+        Grid grid = initial.getGrid();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(grid.getDepth());
+            out.writeInt(grid.getWidth());
+            for (int i = 0; i < grid.getDepth() * grid.getWidth(); i++) {
+                out.writeInt(grid.valueAt(i));
+            }
+            out.writeInt(grid.index(initial.getPos().getX(), initial.getPos().getY()));
+            out.writeByte(initial.getPathMode().ordinal());
+
+            out.writeInt(frontier.size());
+            for (Path p : frontier) {
+                out.writeInt(p.numSteps() - 1);
+                boolean first = true;
+                for (StateJump sj : p) {
+                    if (!first) {
+                        Coord c = sj.state.getPos();
+                        out.writeInt(grid.index(c.getX(), c.getY()));
+                        out.writeInt(sj.dist);
+                    }
+                    first = false;
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a checkpoint written by {@link #write(File, State, Set)}.
+     *
+     * @throws ForestFormatException if the file is not a valid checkpoint
+     */
+    public static Checkpoint read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new ForestFormatException("not a checkpoint: " + file);
+            }
+            if (in.readInt() != VERSION) {
+                throw new ForestFormatException("unsupported checkpoint version");
+            }
+            int depth = in.readInt();
+            int width = in.readInt();
+            if (depth < 1 || width < 1) {
+                throw new ForestFormatException("invalid dimensions " + depth + "x" + width);
+            }
+            int[][] cells = new int[depth][width];
+            for (int[] row : cells) {
+                for (int j = 0; j < width; j++) {
+                    row[j] = in.readInt();
+                }
+            }
+            int pos = Checkpoint.readIndex(in, depth * width);
+            int mode = in.readByte();
+            if (mode < 0 || mode >= PathMode.values().length) {
+                throw new ForestFormatException("unknown path mode " + mode);
+            }
+            State initial = new State(cells, new Coord(pos / width, pos % width))
+                .setPathMode(PathMode.values()[mode]);
+            Grid grid = initial.getGrid();
+
+            Set<Path> frontier = new HashSet<>();
+            int paths = in.readInt();
+            for (int k = 0; k < paths; k++) {
+                int chops = in.readInt();
+                List<StateJump> steps = new ArrayList<>();
+                State s = initial;
+                steps.add(new StateJump(s, 0));
+                for (int c = 0; c < chops; c++) {
+                    int cell = Checkpoint.readIndex(in, depth * width);
+                    s = new State(s).chop(grid.coord(cell));
+                    steps.add(new StateJump(s, in.readInt()));
+                }
+                frontier.add(new Path(steps));
+            }
+
+            return new Checkpoint(initial, frontier);
+        } catch (EOFException e) {
+            throw new ForestFormatException("truncated checkpoint: " + file);
+        }
+    }
+
+    private static int readIndex(DataInputStream in, int size) throws IOException {
+        int i = in.readInt();
+        if (i < 0 || i >= size) {
+            throw new ForestFormatException("cell index " + i + " is not on grid");
+        }
+        return i;
+    }
+}
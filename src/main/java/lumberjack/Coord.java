@@ -1,9 +1,5 @@
 package lumberjack;
 
-import java.util.HashSet;
-import java.util.Set;
-
-
 /**
  * Represents 2d grid location.
  */
@@ -30,15 +26,11 @@ class Coord {
     }
 
     /**
-     * Szudzik's function for hashing two integers < 2^15
+     * Hash the packed encoding of the coordinate.
      */
     @Override
     public int hashCode() {
-        if (this.x >= this.y) {
-            return x*x + x + y;
-        } else {
-            return x + y*y;
-        }
+        return Coord.hash(Coord.pack(this.x, this.y));
     }
 
     public int getX() {
@@ -55,15 +47,44 @@ class Coord {
     }
 
     /**
-     * Return the 4 coordinates within 1 Manhatten distance from the
-     * corrdinate.
+     * Return the packed encoding of this coordinate.
+     */
+    public long pack() {
+        return Coord.pack(this.x, this.y);
+    }
+
+    /**
+     * Pack a 2d coordinate into a single long: x in the high 32 bits and y
+     * in the low 32 bits.
+     *
+     * Packed coordinates are the primitive counterpart to Coord objects on
+     * hot paths. Coordinates relative to a particular grid may be packed
+     * even more tightly as a flat index, see {@link Grid#index(int, int)}.
+     */
+    public static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Return the Coord for a packed coordinate.
+     */
+    public static Coord unpack(long packed) {
+        return new Coord(Coord.unpackX(packed), Coord.unpackY(packed));
+    }
+
+    /**
+     * Mix the bits of a packed coordinate down to an int hash.
      */
-    public Set<Coord> cardinalNeighbors() {
-        Set<Coord> res = new HashSet<>();
-        res.add(new Coord(this.x+1, this.y));
-        res.add(new Coord(this.x-1, this.y));
-        res.add(new Coord(this.x, this.y+1));
-        res.add(new Coord(this.x, this.y-1));
-        return res;
+    static int hash(long packed) {
+        long h = packed * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
     }
 }
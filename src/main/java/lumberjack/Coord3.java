@@ -18,7 +18,7 @@ class Coord3 {
 
     @Override
     public boolean equals(Object other) {
-        if (other instanceof Coord) {
+        if (other instanceof Coord3) {
             Coord3 c = (Coord3) other;
             return this.x == c.getX() && this.y == c.getY() && this.z == c.getZ();
         }
@@ -26,17 +26,12 @@ class Coord3 {
     }
 
     /**
-     * Szudzik's function for hashing two integers less than 2^15, where the two
-     * integers are the height and the hashCode of the X-Y projection.
+     * Hash the packed X-Y projection together with the height, without
+     * allocating the projection.
      */
     @Override
     public int hashCode() {
-        int h = this.projectXY().hashCode();
-        if (h >= this.z) {
-            return h * h + h + z;
-        } else {
-            return h + z * z;
-        }
+        return 31 * Coord.hash(Coord.pack(this.x, this.y)) + this.z;
     }
 
     public int getX() {
@@ -59,4 +54,42 @@ class Coord3 {
     public Coord projectXY() {
         return new Coord(x, y);
     }
+
+    /**
+     * Return the packed encoding of this coordinate.
+     */
+    public long pack() {
+        return Coord3.pack(this.x, this.y, this.z);
+    }
+
+    /**
+     * Pack a 3d coordinate into a single long: x and y as 16 bit signed
+     * values in the high 32 bits and z in the low 32 bits.
+     *
+     * Only grid positions with |x|, |y| < 2^15 can be packed this way.
+     */
+    public static long pack(int x, int y, int z) {
+        assert x == (short) x && y == (short) y;
+        return ((long) (x & 0xFFFF) << 48) | ((long) (y & 0xFFFF) << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public static int unpackX(long packed) {
+        return (short) (packed >>> 48);
+    }
+
+    public static int unpackY(long packed) {
+        return (short) (packed >>> 32);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Return the Coord3 for a packed coordinate.
+     */
+    public static Coord3 unpack(long packed) {
+        return new Coord3(Coord3.unpackX(packed), Coord3.unpackY(packed),
+                          Coord3.unpackZ(packed));
+    }
 }
@@ -0,0 +1,162 @@
+package lumberjack;
+
+import java.util.Arrays;
+
+/**
+ * Adjacency of the walkable cells of a grid in compressed sparse row form.
+ *
+ * Nodes are the cells that are flat ground or trees, i.e. every cell the
+ * lumberjack may ever walk on; trenches are left out. The neighbors of node
+ * v are {@code targets[offsets[v], offsets[v + 1])}. Since chopping only
+ * turns trees into flat ground, the topology never changes while solving
+ * and a chop just flips the node's open bit. Copies share the adjacency
+ * arrays and only copy the open bits.
+ */
+class CsrGraph {
+
+    private final int width;
+    // node id of each cell, or -1 for cells that aren't nodes
+    private final int[] nodeOf;
+    // cell of each node
+    private final int[] cellOf;
+    private final int[] offsets;
+    private final int[] targets;
+    // bit v is set iff node v is currently flat ground
+    private final long[] open;
+
+    /**
+     * Build the adjacency of the walkable cells of `grid`.
+     */
+    public CsrGraph(Grid grid) {
+        this.width = grid.getWidth();
+        int depth = grid.getDepth();
+        int cells = depth * this.width;
+        this.nodeOf = new int[cells];
+        int numNodes = 0;
+        for (int i = 0; i < cells; i++) {
+            this.nodeOf[i] = CsrGraph.walkable(grid.valueAt(i)) ? numNodes++ : -1;
+        }
+
+        this.cellOf = new int[numNodes];
+        this.offsets = new int[numNodes + 1];
+        this.open = new long[(numNodes + 63) >>> 6];
+        int[] edges = new int[4 * numNodes];
+        int numEdges = 0;
+        for (int i = 0; i < cells; i++) {
+            int v = this.nodeOf[i];
+            if (v < 0) {
+                continue;
+            }
+            this.cellOf[v] = i;
+            this.offsets[v] = numEdges;
+            if (grid.valueAt(i) == 0) {
+                this.open[v >>> 6] |= 1L << v;
+            }
+            int x = i / this.width;
+            int y = i - x * this.width;
+            // neighbors in increasing cell order
+            if (x > 0 && this.nodeOf[i - this.width] >= 0) {
+                edges[numEdges++] = this.nodeOf[i - this.width];
+            }
+            if (y > 0 && this.nodeOf[i - 1] >= 0) {
+                edges[numEdges++] = this.nodeOf[i - 1];
+            }
+            if (y < this.width - 1 && this.nodeOf[i + 1] >= 0) {
+                edges[numEdges++] = this.nodeOf[i + 1];
+            }
+            if (x < depth - 1 && this.nodeOf[i + this.width] >= 0) {
+                edges[numEdges++] = this.nodeOf[i + this.width];
+            }
+        }
+        this.offsets[numNodes] = numEdges;
+        this.targets = Arrays.copyOf(edges, numEdges);
+    }
+
+    /**
+     * Copy constructor. The adjacency arrays are shared, the open bits are
+     * copied.
+     */
+    public CsrGraph(CsrGraph copy) {
+        this.width = copy.width;
+        this.nodeOf = copy.nodeOf;
+        this.cellOf = copy.cellOf;
+        this.offsets = copy.offsets;
+        this.targets = copy.targets;
+        this.open = copy.open.clone();
+    }
+
+    private static boolean walkable(int value) {
+        return value >= 0;
+    }
+
+    public int numNodes() {
+        return this.cellOf.length;
+    }
+
+    public int numEdges() {
+        return this.targets.length;
+    }
+
+    /**
+     * Patch the graph after the cell at flat index `index` changed to
+     * `value`.
+     *
+     * @return false if the change can't be patched because it turns a
+     *     trench into a walkable cell; the graph must then be rebuilt
+     */
+    public boolean update(int index, int value) {
+        int v = this.nodeOf[index];
+        if (v < 0) {
+            return !CsrGraph.walkable(value);
+        }
+        if (value == 0) {
+            this.open[v >>> 6] |= 1L << v;
+        } else {
+            this.open[v >>> 6] &= ~(1L << v);
+        }
+        return true;
+    }
+
+    /**
+     * Compute the minimum number of cardinal moves from `from` to `to`
+     * across flat cells; `to` itself need not be flat.
+     *
+     * @param from flat index of the starting cell
+     * @param to flat index of the destination cell
+     * @return the distance, or -1 if `to` is unreachable; -2 if either end
+     *     is a trench and so not part of the graph
+     */
+    public int distance(int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+        int source = this.nodeOf[from];
+        int target = this.nodeOf[to];
+        if (source < 0 || target < 0) {
+            return -2;
+        }
+
+        int[] dist = new int[this.cellOf.length];
+        Arrays.fill(dist, -1);
+        int[] queue = new int[this.cellOf.length];
+        int head = 0;
+        int tail = 0;
+        dist[source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int u = queue[head++];
+            int next = dist[u] + 1;
+            for (int e = this.offsets[u]; e < this.offsets[u + 1]; e++) {
+                int n = this.targets[e];
+                if (n == target) {
+                    return next;
+                }
+                if (dist[n] < 0 && (this.open[n >>> 6] & (1L << n)) != 0) {
+                    dist[n] = next;
+                    queue[tail++] = n;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,191 @@
+package lumberjack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Cell store kept outside of the Java heap in a direct ByteBuffer.
+ *
+ * Meant for forests too large to keep comfortably on the heap next to the
+ * solver's state maps: the cells add nothing to GC marking or copying.
+ * Like the heap stores, it uses 1, 2 or 4 bytes per cell depending on the
+ * range of values.
+ *
+ * The native memory is not freed explicitly: the JDK releases it when the
+ * garbage collector finds the buffer unreachable. Closing the store drops
+ * its reference to the buffer right away, so the memory goes with the next
+ * collection, and any later access fails with an IllegalStateException
+ * instead of touching released memory.
+ *
+ * Only the store a grid is built on lives off heap. Grid shares that store
+ * with the grids and states copied from it until one of them changes a
+ * cell, and the grid that changes moves to a heap copy (see
+ * {@link #copy()}). So deriving states doesn't duplicate the forest on the
+ * heap, and no derived grid holds a direct buffer that nothing closes.
+ */
+class DirectStore extends CellStore {
+
+    private final int size;
+    private final int bytesPerCell;
+    private ByteBuffer buffer;
+
+    /**
+     * Allocate an empty (all zero) store of `size` cells, each
+     * `bytesPerCell` bytes wide (1, 2 or 4).
+     *
+     * @throws IllegalArgumentException if the store would take more than
+     *     Integer.MAX_VALUE bytes, the largest buffer there is
+     */
+    public DirectStore(int size, int bytesPerCell) {
+        if (!DirectStore.validWidth(bytesPerCell)) {
+            throw new IllegalArgumentException("cells must be 1, 2 or 4 bytes wide");
+        }
+        long bytes = (long) size * bytesPerCell;
+        if (size < 0 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "cannot allocate " + size + " cells of " + bytesPerCell + " bytes off heap");
+        }
+        this.size = size;
+        this.bytesPerCell = bytesPerCell;
+        this.buffer = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Wrap an existing buffer holding `bytesPerCell` bytes per cell, in the
+     * byte order of the buffer. The buffer is not copied.
+     */
+    DirectStore(ByteBuffer buffer, int bytesPerCell) {
+        this.size = buffer.capacity() / bytesPerCell;
+        this.bytesPerCell = bytesPerCell;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Return true if cells can be `bytesPerCell` bytes wide.
+     */
+    public static boolean validWidth(int bytesPerCell) {
+        return bytesPerCell == 1 || bytesPerCell == 2 || bytesPerCell == 4;
+    }
+
+    /**
+     * Return an empty store of `size` cells wide enough for values in
+     * [min, max].
+     */
+    public static DirectStore forRange(int size, int min, int max) {
+        if (Byte.MIN_VALUE <= min && max <= Byte.MAX_VALUE) {
+            return new DirectStore(size, 1);
+        } else if (Short.MIN_VALUE <= min && max <= Short.MAX_VALUE) {
+            return new DirectStore(size, 2);
+        } else {
+            return new DirectStore(size, 4);
+        }
+    }
+
+    /**
+     * Return the number of bytes used by each cell: 1, 2 or 4.
+     */
+    public int bytesPerCell() {
+        return this.bytesPerCell;
+    }
+
+    private ByteBuffer buffer() {
+        if (this.buffer == null) {
+            throw new IllegalStateException("store is closed");
+        }
+        return this.buffer;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int get(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        switch (this.bytesPerCell) {
+            case 1:
+                return this.buffer().get(index);
+            case 2:
+                return this.buffer().getShort(index << 1);
+            default:
+                return this.buffer().getInt(index << 2);
+        }
+    }
+
+    @Override
+    public void set(int index, int value) {
+        if (index < 0 || index >= this.size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        switch (this.bytesPerCell) {
+            case 1:
+                this.buffer().put(index, (byte) value);
+                break;
+            case 2:
+                this.buffer().putShort(index << 1, (short) value);
+                break;
+            default:
+                this.buffer().putInt(index << 2, value);
+                break;
+        }
+    }
+
+    @Override
+    public boolean fits(int value) {
+        switch (this.bytesPerCell) {
+            case 1:
+                return value == (byte) value;
+            case 2:
+                return value == (short) value;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Return a heap copy of this store, with cells as wide as this one's.
+     */
+    @Override
+    public CellStore copy() {
+        CellStore res;
+        if (this.bytesPerCell == 1) {
+            res = new ByteStore(this.size);
+        } else if (this.bytesPerCell == 2) {
+            res = new ShortStore(this.size);
+        } else {
+            res = new IntStore(this.size);
+        }
+        for (int i = 0; i < this.size; i++) {
+            res.set(i, this.get(i));
+        }
+        return res;
+    }
+
+    /**
+     * Return an off heap copy of this store widened so that it also holds
+     * `value`.
+     */
+    @Override
+    public CellStore widened(int value) {
+        DirectStore res = new DirectStore(this.size, value == (short) value ? 2 : 4);
+        for (int i = 0; i < this.size; i++) {
+            res.set(i, this.get(i));
+        }
+        return res;
+    }
+
+    /**
+     * Drop the buffer, leaving its memory to the garbage collector.
+     */
+    @Override
+    public void close() {
+        this.buffer = null;
+    }
+
+    public boolean isClosed() {
+        return this.buffer == null;
+    }
+}
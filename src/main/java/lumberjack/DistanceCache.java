@@ -0,0 +1,255 @@
+package lumberjack;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Thread-safe cache of distance fields: the distance from a source cell to
+ * every cell of a grid, for a given layout of flat ground.
+ *
+ * Distances only depend on which cells are flat, so a field is keyed by the
+ * grid's flat fingerprint (see {@link Grid#flatFingerprint()}) plus the
+ * source. A lookup is confirmed against a copy of the flat cells kept with
+ * the field, so fingerprint collisions can't return wrong distances. The
+ * lookup's flat cells come from {@link Grid#passability()}, which a chopped
+ * state derives from its parent's bitset, so a whole solve scans the cells
+ * for them once. One
+ * field answers every destination, so the states of a solve, which query
+ * the trees of a level from the same position, and repeated solves of
+ * related forests, flood each layout from each source once.
+ *
+ * Fields are evicted least recently used first once their total size goes
+ * over the memory budget. A field costs about 4 bytes plus 1 bit per cell.
+ * The process-wide instance returned by {@link #shared()} has a budget of
+ * DEFAULT_BUDGET bytes, set by the system property
+ * lumberjack.distanceCacheBytes (64 MiB by default).
+ */
+class DistanceCache {
+
+    public static final long DEFAULT_BUDGET =
+        Long.getLong("lumberjack.distanceCacheBytes", 64L << 20);
+
+    private static final DistanceCache SHARED = new DistanceCache(DEFAULT_BUDGET);
+
+    private final LinkedHashMap<Key, Field> fields = new LinkedHashMap<>(16, 0.75f, true);
+    private long budget;
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create an empty cache holding at most about `budget` bytes of
+     * fields.
+     */
+    public DistanceCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Return the process-wide cache.
+     */
+    public static DistanceCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Return the distance from flat index `from` to flat index `to` on
+     * `grid`, or -1 if there is no path; the same as
+     * {@link PathMode#distance(Grid, int, int)}.
+     */
+    public int distance(Grid grid, int from, int to) {
+        return this.field(grid, from).distanceTo(grid, to);
+    }
+
+    // return the field of `grid` from `from`, flooding it on a miss
+    private Field field(Grid grid, int from) {
+        Key key = new Key(grid.flatFingerprint(), from, grid.getDepth(), grid.getWidth());
+        PassabilityBits flat = grid.passability();
+        synchronized (this) {
+            Field f = this.fields.get(key);
+            if (f != null && f.flat.sameAs(flat)) {
+                this.hits++;
+                return f;
+            }
+            this.misses++;
+        }
+
+        Field f = new Field(new PassabilityBits(flat), Field.flood(grid, from));
+        synchronized (this) {
+            Field old = this.fields.put(key, f);
+            if (old != null) {
+                this.bytes -= old.bytes();
+            }
+            this.bytes += f.bytes();
+            this.evict();
+        }
+        return f;
+    }
+
+    // drop least recently used fields until the cache fits its budget,
+    // always keeping the newest one
+    private void evict() {
+        Iterator<Field> it = this.fields.values().iterator();
+        while (this.bytes > this.budget && this.fields.size() > 1) {
+            this.bytes -= it.next().bytes();
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Change the memory budget, evicting fields if needed.
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        this.evict();
+    }
+
+    public synchronized long getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * Return the approximate size of the cached fields in bytes.
+     */
+    public synchronized long bytes() {
+        return this.bytes;
+    }
+
+    public synchronized int size() {
+        return this.fields.size();
+    }
+
+    public synchronized long hits() {
+        return this.hits;
+    }
+
+    public synchronized long misses() {
+        return this.misses;
+    }
+
+    public synchronized long evictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Remove all fields. The counters are kept.
+     */
+    public synchronized void clear() {
+        this.fields.clear();
+        this.bytes = 0;
+    }
+
+    private static final class Key {
+        final long fingerprint;
+        final int source;
+        final int depth;
+        final int width;
+
+        Key(long fingerprint, int source, int depth, int width) {
+            this.fingerprint = fingerprint;
+            this.source = source;
+            this.depth = depth;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) other;
+            return this.fingerprint == k.fingerprint && this.source == k.source
+                && this.depth == k.depth && this.width == k.width;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Coord.hash(this.fingerprint) + this.source;
+        }
+    }
+
+    /**
+     * Distances from one source across flat ground, with the flat cells
+     * they were computed for.
+     */
+    private static final class Field {
+        final PassabilityBits flat;
+        // distance to each cell walking on flat ground, -1 if unreachable
+        final int[] dist;
+
+        Field(PassabilityBits flat, int[] dist) {
+            this.flat = flat;
+            this.dist = dist;
+        }
+
+        long bytes() {
+            return 4L * this.dist.length + this.flat.bytes() + 64;
+        }
+
+        // breadth first search from `from` over every flat cell it reaches
+        static int[] flood(Grid grid, int from) {
+            Flood f = new Flood(grid.getDepth() * grid.getWidth(), from);
+            CellPredicate unseen = (n, h) -> {
+                return h == 0 && f.dist[n] < 0;
+            };
+            while (f.head < f.tail) {
+                int c = f.queue[f.head++];
+                f.nextDist = f.dist[c] + 1;
+                grid.forEachNeighbor(c, unseen, f);
+            }
+            return f.dist;
+        }
+
+        // the destination may be a tree or trench: step onto it from the
+        // closest reached neighbor
+        int distanceTo(Grid grid, int to) {
+            if (this.flat.get(to) || this.dist[to] == 0) {
+                return this.dist[to];
+            }
+            int[] best = {-1};
+            grid.forEachNeighbor(to, (n, h) -> {
+                return this.dist[n] >= 0;
+            }, n -> {
+                if (best[0] < 0 || this.dist[n] + 1 < best[0]) {
+                    best[0] = this.dist[n] + 1;
+                }
+            });
+            return best[0];
+        }
+    }
+
+    /**
+     * State of a flood fill. It doubles as the neighbor callback so that
+     * exploring a cell allocates nothing.
+     */
+    private static final class Flood implements IntConsumer {
+        final int[] dist;
+        // FIFO of reached cells; queue[head, tail) is still to be explored
+        int[] queue = new int[16];
+        int head;
+        int tail;
+        // distance assigned to neighbors of the cell being explored
+        int nextDist;
+
+        Flood(int size, int source) {
+            this.dist = new int[size];
+            Arrays.fill(this.dist, -1);
+            this.dist[source] = 0;
+            this.queue[this.tail++] = source;
+        }
+
+        @Override
+        public void accept(int n) {
+            this.dist[n] = this.nextDist;
+            if (this.tail == this.queue.length) {
+                this.queue = Arrays.copyOf(this.queue, 2 * this.queue.length);
+            }
+            this.queue[this.tail++] = n;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package lumberjack;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+/**
+ * Solver that keeps the search frontier on disk, for forests whose frontier
+ * doesn't fit in the heap.
+ *
+ * It runs the same level by level search as Solver: step k chops the k-th
+ * tree, so every state of step k has chopped exactly k trees. A state is
+ * stored as a fixed size record: the bitset of chopped trees (see
+ * TreeOrder), the position, the position before the last chop and the
+ * distance walked. Records of the next step are collected in memory up to
+ * a fixed count, then sorted and written to a temporary file as a run. At
+ * the end of a step the runs are merged, keeping the shortest distance for
+ * each state, into one sorted file for the next step. So the heap holds at
+ * most `maxRecords` records plus one read buffer per merged run, however
+ * large the frontier grows.
+ *
+ * Instead of a copy of the grid per state, a single working grid is
+ * brought in line with each record by flipping only the trees whose
+ * chopped bit differs from the previous record. Records are sorted by
+ * bitset, so neighbors differ in few trees.
+ *
+ * For {@link #detailedSolve()} the sorted file of every step is kept until
+ * the end, and the path is rebuilt by looking up the predecessor of each
+ * state with a binary search in the file of the step before.
+ */
+class ExternalSolver {
+
+    public static final int DEFAULT_MAX_RECORDS = 1 << 16;
+
+    // most runs merged at once; more runs are merged in several passes
+    private static final int MAX_FAN_IN = 64;
+    private static final int IO_BUFFER = 1 << 16;
+
+    private final State initial;
+    private final File tempDir;
+    private final int maxRecords;
+
+    private TreeOrder trees;
+    private int recordBytes;
+    private File dir;
+    private int filesCreated;
+    private int runsWritten;
+    private long maxLevelSize;
+
+    // where progress and warnings are printed; null for nowhere
+    private PrintStream log = System.out;
+
+    /**
+     * Create a solver spilling to the default temporary directory with at
+     * most DEFAULT_MAX_RECORDS records in memory.
+     */
+    public ExternalSolver(State initial) {
+        this(initial, null, DEFAULT_MAX_RECORDS);
+    }
+
+    /**
+     * Create a solver.
+     *
+     * @param initial initial state
+     * @param tempDir directory for temporary files, or null for the system
+     *     default
+     * @param maxRecords most states held in memory at once
+     */
+    public ExternalSolver(State initial, File tempDir, int maxRecords) {
+        if (maxRecords < 1) {
+            throw new IllegalArgumentException("maxRecords must be positive");
+        }
+        this.initial = initial;
+        this.tempDir = tempDir;
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Print progress and warnings to `log` instead of standard output, or
+     * nowhere if `log` is null.
+     *
+     * Fluent style.
+     */
+    public ExternalSolver setLog(PrintStream log) {
+        this.log = log;
+        return this;
+    }
+
+    /**
+     * Return the minimal distance required to travel to cut down the whole
+     * initial forest, or -1 if there is no solution.
+     *
+     * @throws UncheckedIOException if the temporary files can't be written
+     */
+    public int solve() {
+        Optional<Record> best = this.search(false);
+        return best.isPresent() ? best.get().dist : -1;
+    }
+
+    /**
+     * Return a minimal path through the forest that cuts down all trees in
+     * order from shortest to tallest.
+     *
+     * @throws UncheckedIOException if the temporary files can't be written
+     */
+    public Optional<Path> detailedSolve() {
+        List<RunFile> levels = new ArrayList<>();
+        try {
+            Optional<Record> best = this.search(true, levels);
+            if (!best.isPresent()) {
+                return Optional.empty();
+            }
+            return Optional.of(this.rebuild(best.get(), levels));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.cleanUp();
+        }
+    }
+
+    /**
+     * Return the number of sorted runs written to disk by the last solve.
+     */
+    public int getRunsWritten() {
+        return this.runsWritten;
+    }
+
+    /**
+     * Return the number of distinct states in the largest step of the last
+     * solve.
+     */
+    public long getMaxLevelSize() {
+        return this.maxLevelSize;
+    }
+
+    private Optional<Record> search(boolean keepLevels) {
+        try {
+            return this.search(keepLevels, new ArrayList<>());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.cleanUp();
+        }
+    }
+
+    // run the search, appending the sorted file of every step to `levels`
+    // if `keepLevels` is set, and return the best final record
+    private Optional<Record> search(boolean keepLevels, List<RunFile> levels)
+            throws IOException {
+        this.runsWritten = 0;
+        this.maxLevelSize = 0;
+        Optional<Coord> unreachable = this.initial.firstUnreachableTree();
+        if (unreachable.isPresent()) {
+            Solver.log(this.log, "ExternalSolver: [WARN] tree at %s can never be reached",
+                       unreachable.get());
+            return Optional.empty();
+        }
+
+        Grid work = this.initial.getGrid();
+        this.trees = new TreeOrder(work);
+        this.recordBytes = 12 + 8 * this.trees.words();
+        this.dir = this.tempDir == null
+            ? Files.createTempDirectory("lumberjack").toFile()
+            : Files.createTempDirectory(this.tempDir.toPath(), "lumberjack").toFile();
+
+        Coord pos = this.initial.getPos();
+        List<Record> start = new ArrayList<>();
+        start.add(new Record(new long[this.trees.words()], work.index(pos.getX(), pos.getY()),
+                             -1, 0));
+        RunFile level = this.writeRun(start);
+        long[] workBits = new long[this.trees.words()];
+        for (int step = 0; step < this.trees.size(); step++) {
+            RunFile next = this.expand(level, work, workBits);
+            if (keepLevels) {
+                levels.add(level);
+            } else {
+                level.file.delete();
+            }
+            level = next;
+            this.maxLevelSize = Math.max(this.maxLevelSize, level.count);
+            Solver.log(this.log, "ExternalSolver: step %d, %d states, %d runs",
+                       step + 1, level.count, this.runsWritten);
+            if (level.count == 0) {
+                return Optional.empty();
+            }
+        }
+        levels.add(level);
+
+        // every state of the last step has chopped all trees
+        Record best = null;
+        try (RecordReader in = new RecordReader(level)) {
+            for (Record r = in.next(); r != null; r = in.next()) {
+                if (best == null || r.dist < best.dist) {
+                    best = r;
+                }
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    // expand every state of `level` by one chop and return the sorted,
+    // deduplicated file of the next step
+    private RunFile expand(RunFile level, Grid work, long[] workBits) throws IOException {
+        PathMode mode = this.initial.getPathMode();
+        List<RunFile> runs = new ArrayList<>();
+        List<Record> buffer = new ArrayList<>();
+        try (RecordReader in = new RecordReader(level)) {
+            for (Record r = in.next(); r != null; r = in.next()) {
+                this.align(work, workBits, r.bits);
+                int first = this.trees.firstStanding(r.bits);
+                if (first == this.trees.size()) {
+                    continue;
+                }
+                for (int id = first; id < this.trees.levelEnd(first); id++) {
+                    if ((r.bits[id >>> 6] & (1L << id)) != 0) {
+                        continue;
+                    }
+                    int to = this.trees.cell(id);
+                    int d = mode.distance(work, r.pos, to);
+                    if (d < 0) {
+                        continue;
+                    }
+                    long[] bits = r.bits.clone();
+                    bits[id >>> 6] |= 1L << id;
+                    buffer.add(new Record(bits, to, r.pos, r.dist + d));
+                    if (buffer.size() >= this.maxRecords) {
+                        runs.add(this.writeRun(buffer));
+                        buffer.clear();
+                    }
+                }
+            }
+        }
+        if (!buffer.isEmpty() || runs.isEmpty()) {
+            runs.add(this.writeRun(buffer));
+        }
+        return this.merge(runs);
+    }
+
+    // chop and regrow trees of `work` so that its chopped trees are `bits`
+    private void align(Grid work, long[] workBits, long[] bits) {
+        for (int w = 0; w < bits.length; w++) {
+            long diff = workBits[w] ^ bits[w];
+            while (diff != 0) {
+                int id = (w << 6) + Long.numberOfTrailingZeros(diff);
+                diff &= diff - 1;
+                boolean chopped = (bits[w] & (1L << id)) != 0;
+                work.setValue(work.coord(this.trees.cell(id)), chopped ? 0 : this.trees.height(id));
+            }
+            workBits[w] = bits[w];
+        }
+    }
+
+    // sort, deduplicate and write `records` as a run
+    private RunFile writeRun(List<Record> records) throws IOException {
+        records.sort(Record.ORDER);
+        RunFile run = this.newFile();
+        try (RecordWriter out = new RecordWriter(run)) {
+            Record last = null;
+            for (Record r : records) {
+                if (last == null || Record.KEY_ORDER.compare(last, r) != 0) {
+                    out.write(r);
+                    last = r;
+                }
+            }
+        }
+        this.runsWritten++;
+        return run;
+    }
+
+    // merge sorted runs into one, keeping the shortest distance of each
+    // state, and delete them
+    private RunFile merge(List<RunFile> runs) throws IOException {
+        while (runs.size() > 1) {
+            List<RunFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                merged.add(this.mergePass(runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN))));
+            }
+            runs = merged;
+        }
+        return runs.get(0);
+    }
+
+    private RunFile mergePass(List<RunFile> runs) throws IOException {
+        if (runs.size() == 1) {
+            return runs.get(0);
+        }
+        RunFile res = this.newFile();
+        List<RecordReader> readers = new ArrayList<>();
+        PriorityQueue<Head> heads = new PriorityQueue<>(runs.size());
+        try (RecordWriter out = new RecordWriter(res)) {
+            for (RunFile run : runs) {
+                RecordReader in = new RecordReader(run);
+                readers.add(in);
+                Record r = in.next();
+                if (r != null) {
+                    heads.add(new Head(r, in));
+                }
+            }
+            Record last = null;
+            while (!heads.isEmpty()) {
+                Head h = heads.poll();
+                if (last == null || Record.KEY_ORDER.compare(last, h.record) != 0) {
+                    out.write(h.record);
+                    last = h.record;
+                }
+                Record r = h.in.next();
+                if (r != null) {
+                    heads.add(new Head(r, h.in));
+                }
+            }
+        } finally {
+            for (RecordReader in : readers) {
+                in.close();
+            }
+        }
+        for (RunFile run : runs) {
+            run.file.delete();
+        }
+        return res;
+    }
+
+    // follow predecessors back from the final record `last` through the
+    // files of the earlier steps
+    private Path rebuild(Record last, List<RunFile> levels) throws IOException {
+        Record[] chain = new Record[levels.size()];
+        chain[chain.length - 1] = last;
+        for (int step = chain.length - 2; step >= 0; step--) {
+            Record r = chain[step + 1];
+            long[] bits = r.bits.clone();
+            int id = this.trees.id(r.pos);
+            bits[id >>> 6] &= ~(1L << id);
+            chain[step] = this.find(levels.get(step), new Record(bits, r.parent, -1, 0));
+        }
+
+        State state = new State(this.initial);
+        Path res = new Path(new StateJump(state, 0));
+        Grid grid = this.initial.getGrid();
+        for (int step = 1; step < chain.length; step++) {
+            state = new State(state).chop(grid.coord(chain[step].pos));
+            res.add(new StateJump(state, chain[step].dist - chain[step - 1].dist));
+        }
+        return res;
+    }
+
+    // binary search the sorted file `run` for the record with the key of
+    // `key`
+    private Record find(RunFile run, Record key) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(run.file, "r")) {
+            byte[] buf = new byte[this.recordBytes];
+            long lo = 0;
+            long hi = run.count;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                f.seek(mid * this.recordBytes);
+                f.readFully(buf);
+                Record r = this.decode(new DataInputStream(new ByteArrayInputStream(buf)));
+                int c = Record.KEY_ORDER.compare(r, key);
+                if (c == 0) {
+                    return r;
+                } else if (c < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+        }
+        throw new IllegalStateException("predecessor state missing from step file");
+    }
+
+    private RunFile newFile() {
+        return new RunFile(new File(this.dir, "run-" + this.filesCreated++ + ".bin"));
+    }
+
+    private void cleanUp() {
+        if (this.dir != null) {
+            File[] files = this.dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            this.dir.delete();
+            this.dir = null;
+        }
+    }
+
+    private Record decode(DataInputStream in) throws IOException {
+        int pos = in.readInt();
+        int parent = in.readInt();
+        int dist = in.readInt();
+        long[] bits = new long[this.trees.words()];
+        for (int w = 0; w < bits.length; w++) {
+            bits[w] = in.readLong();
+        }
+        return new Record(bits, pos, parent, dist);
+    }
+
+    /**
+     * A state of the search: chopped trees and position, which make up the
+     * key, plus the previous position and the distance walked.
+     */
+    private static final class Record {
+        // by key only
+        static final Comparator<Record> KEY_ORDER = (a, b) -> {
+            for (int w = 0; w < a.bits.length; w++) {
+                int c = Long.compare(a.bits[w], b.bits[w]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return Integer.compare(a.pos, b.pos);
+        };
+
+        // by key, then shortest distance first
+        static final Comparator<Record> ORDER = KEY_ORDER
+            .thenComparingInt(r -> r.dist)
+            .thenComparingInt(r -> r.parent);
+
+        final long[] bits;
+        final int pos;
+        final int parent;
+        final int dist;
+
+        Record(long[] bits, int pos, int parent, int dist) {
+            this.bits = bits;
+            this.pos = pos;
+            this.parent = parent;
+            this.dist = dist;
+        }
+    }
+
+    /**
+     * A file of records sorted by Record.ORDER, with one record per key.
+     */
+    private static final class RunFile {
+        final File file;
+        long count;
+
+        RunFile(File file) {
+            this.file = file;
+        }
+    }
+
+    private static final class RecordWriter implements Closeable {
+        private final RunFile run;
+        private final DataOutputStream out;
+
+        RecordWriter(RunFile run) throws IOException {
+            this.run = run;
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(run.file), IO_BUFFER));
+        }
+
+        void write(Record r) throws IOException {
+            this.out.writeInt(r.pos);
+            this.out.writeInt(r.parent);
+            this.out.writeInt(r.dist);
+            for (long w : r.bits) {
+                this.out.writeLong(w);
+            }
+            this.run.count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+    }
+
+    private final class RecordReader implements Closeable {
+        private final DataInputStream in;
+        private long remaining;
+
+        RecordReader(RunFile run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(run.file), IO_BUFFER));
+            this.remaining = run.count;
+        }
+
+        // return the next record, or null at the end of the file
+        Record next() throws IOException {
+            if (this.remaining == 0) {
+                return null;
+            }
+            this.remaining--;
+            return ExternalSolver.this.decode(this.in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+
+    /**
+     * The smallest unmerged record of a run.
+     */
+    private static final class Head implements Comparable<Head> {
+        final Record record;
+        final RecordReader in;
+
+        Head(Record record, RecordReader in) {
+            this.record = record;
+            this.in = in;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            return Record.ORDER.compare(this.record, other.record);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package lumberjack;
+
+/**
+ * Connected components of the flat ground (height 0) of a grid, kept in a
+ * union-find structure.
+ *
+ * Chopping a tree only ever merges components, which union-find handles
+ * incrementally with {@link #open(int)}. Whether a tree can be reached from
+ * the lumberjack's position is then a couple of find operations instead of
+ * a path search.
+ */
+class FlatComponents {
+
+    // marks a cell that is not flat ground
+    private static final int NOT_FLAT = Integer.MIN_VALUE;
+
+    private final int depth;
+    private final int width;
+    // parent[i] is the parent of flat cell i, or -size if i is the root of
+    // a component of the given size, or NOT_FLAT
+    private final int[] parent;
+
+    /**
+     * Label the flat components of `grid`.
+     */
+    public FlatComponents(Grid grid) {
+        this.depth = grid.getDepth();
+        this.width = grid.getWidth();
+        this.parent = new int[this.depth * this.width];
+        for (int i = 0; i < this.parent.length; i++) {
+            this.parent[i] = grid.valueAt(i) == 0 ? -1 : NOT_FLAT;
+        }
+        for (int i = 0; i < this.parent.length; i++) {
+            if (this.parent[i] != NOT_FLAT) {
+                // linking right and down covers every adjacent pair once
+                if ((i + 1) % this.width != 0 && this.isFlat(i + 1)) {
+                    this.union(i, i + 1);
+                }
+                if (i + this.width < this.parent.length && this.isFlat(i + this.width)) {
+                    this.union(i, i + this.width);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy constructor.
+     */
+    public FlatComponents(FlatComponents copy) {
+        this.depth = copy.depth;
+        this.width = copy.width;
+        this.parent = copy.parent.clone();
+    }
+
+    public boolean isFlat(int index) {
+        return this.parent[index] != NOT_FLAT;
+    }
+
+    /**
+     * Record that the cell at flat index `index` has become flat ground,
+     * merging it with the components of its flat neighbors.
+     */
+    public void open(int index) {
+        if (this.isFlat(index)) {
+            return;
+        }
+        this.parent[index] = -1;
+        int x = index / this.width;
+        int y = index - x * this.width;
+        if (x > 0 && this.isFlat(index - this.width)) {
+            this.union(index, index - this.width);
+        }
+        if (x < this.depth - 1 && this.isFlat(index + this.width)) {
+            this.union(index, index + this.width);
+        }
+        if (y > 0 && this.isFlat(index - 1)) {
+            this.union(index, index - 1);
+        }
+        if (y < this.width - 1 && this.isFlat(index + 1)) {
+            this.union(index, index + 1);
+        }
+    }
+
+    /**
+     * Return true if flat cells `a` and `b` are in the same component.
+     */
+    public boolean connected(int a, int b) {
+        return this.find(a) == this.find(b);
+    }
+
+    /**
+     * Return true if there is a path from `from` to `to` that crosses
+     * only flat ground, except possibly at its two ends.
+     *
+     * This is exactly the condition for a finite
+     * {@link PathMode#distance(Grid, int, int)}.
+     */
+    public boolean canReach(int from, int to) {
+        if (from == to) {
+            return true;
+        }
+        // walk the neighbors of `to` looking for one joined to `from`
+        int x = to / this.width;
+        int y = to - x * this.width;
+        return (x > 0 && this.joins(from, to - this.width))
+            || (x < this.depth - 1 && this.joins(from, to + this.width))
+            || (y > 0 && this.joins(from, to - 1))
+            || (y < this.width - 1 && this.joins(from, to + 1));
+    }
+
+    /**
+     * Return true if a path over flat ground leads from `from` to the
+     * neighbor `n` of the destination, `n` included.
+     */
+    private boolean joins(int from, int n) {
+        if (n == from) {
+            return true;
+        }
+        if (!this.isFlat(n)) {
+            return false;
+        }
+        if (this.isFlat(from)) {
+            return this.connected(from, n);
+        }
+        // a starting cell that isn't flat can still step onto flat ground
+        int x = from / this.width;
+        int y = from - x * this.width;
+        return (x > 0 && this.isFlat(from - this.width) && this.connected(from - this.width, n))
+            || (x < this.depth - 1 && this.isFlat(from + this.width)
+                && this.connected(from + this.width, n))
+            || (y > 0 && this.isFlat(from - 1) && this.connected(from - 1, n))
+            || (y < this.width - 1 && this.isFlat(from + 1) && this.connected(from + 1, n));
+    }
+
+    /**
+     * Point every flat cell straight at the root of its component. Finds
+     * then never write, so the structure can be read from several threads
+     * as long as it isn't changed.
+     */
+    public void compress() {
+        for (int i = 0; i < this.parent.length; i++) {
+            if (this.parent[i] >= 0) {
+                int root = i;
+                while (this.parent[root] >= 0) {
+                    root = this.parent[root];
+                }
+                this.parent[i] = root;
+            }
+        }
+    }
+
+    /**
+     * Return the root of the component of flat cell `i`, halving the path
+     * on the way.
+     */
+    private int find(int i) {
+        while (this.parent[i] >= 0) {
+            int p = this.parent[i];
+            if (this.parent[p] < 0) {
+                return p;
+            }
+            this.parent[i] = this.parent[p];
+            i = this.parent[p];
+        }
+        return i;
+    }
+
+    /**
+     * Merge the components of flat cells `a` and `b`, linking the smaller
+     * under the larger.
+     */
+    private void union(int a, int b) {
+        int ra = this.find(a);
+        int rb = this.find(b);
+        if (ra == rb) {
+            return;
+        }
+        if (this.parent[ra] > this.parent[rb]) {
+            int t = ra;
+            ra = rb;
+            rb = t;
+        }
+        this.parent[ra] += this.parent[rb];
+        this.parent[rb] = ra;
+    }
+}
@@ -0,0 +1,199 @@
+package lumberjack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary forest files.
+ *
+ * A file is a 24 byte header followed by the cells in row major order, all
+ * little endian:
+ *
+ * <pre>
+ *   offset  size  field
+ *   0       4     magic "LJFR"
+ *   4       1     format version (1)
+ *   5       1     bytes per cell (1, 2 or 4)
+ *   6       2     reserved (0)
+ *   8       4     depth
+ *   12      4     width
+ *   16      4     start x
+ *   20      4     start y
+ *   24            depth * width cells
+ * </pre>
+ *
+ * Reading a file memory maps the cells and wraps them in a read only
+ * MappedStore, so nothing is parsed or copied onto the heap. The cells are
+ * checked in one pass over the mapping, so a corrupt or hand written file
+ * with a height below -1 is rejected on load rather than solved.
+ */
+final class ForestFile {
+
+    public static final int MAGIC = 0x52464a4c; // "LJFR" read little endian
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 24;
+
+    private final Grid grid;
+    private final Coord start;
+
+    private ForestFile(Grid grid, Coord start) {
+        this.grid = grid;
+        this.start = start;
+    }
+
+    /**
+     * Return the forest, backed by the mapped file.
+     */
+    public Grid getGrid() {
+        return this.grid;
+    }
+
+    /**
+     * Return the start position of the lumberjack.
+     */
+    public Coord getStart() {
+        return this.start;
+    }
+
+    /**
+     * Return the initial state of the forest. The state shares the mapped
+     * cells until it is modified.
+     */
+    public State toState() {
+        return new State(this.grid, this.start);
+    }
+
+    /**
+     * Memory map a forest file.
+     *
+     * @throws ForestFormatException if the header is malformed or does not
+     *     match the size of the file, or a cell is below -1
+     */
+    public static ForestFile read(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES) {
+                throw new ForestFormatException("truncated header: " + file);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (ch.read(header, header.position()) < 0) {
+                    throw new ForestFormatException("truncated header: " + file);
+                }
+            }
+            header.flip();
+
+            if (header.getInt(0) != MAGIC) {
+                throw new ForestFormatException("not a forest file: " + file);
+            }
+            if (header.get(4) != VERSION) {
+                throw new ForestFormatException("unsupported version " + header.get(4));
+            }
+            int bytesPerCell = header.get(5);
+            if (!DirectStore.validWidth(bytesPerCell)) {
+                throw new ForestFormatException("unsupported cell width " + bytesPerCell);
+            }
+            int depth = header.getInt(8);
+            int width = header.getInt(12);
+            if (depth < 1 || width < 1) {
+                throw new ForestFormatException("invalid dimensions " + depth + "x" + width);
+            }
+            long payload = (long) depth * width * bytesPerCell;
+            if (payload > Integer.MAX_VALUE) {
+                throw new ForestFormatException("forest too large to map: " + depth + "x" + width);
+            }
+            if (size != HEADER_BYTES + payload) {
+                throw new ForestFormatException(String.format(
+                    "expected %d bytes of cells, found %d", payload, size - HEADER_BYTES));
+            }
+            Coord start = new Coord(header.getInt(16), header.getInt(20));
+
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer cells = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, payload);
+            cells.order(ByteOrder.LITTLE_ENDIAN);
+            MappedStore store = new MappedStore(cells, bytesPerCell);
+            for (int i = 0; i < store.size(); i++) {
+                int v = store.get(i);
+                if (v < -1) {
+                    throw new ForestFormatException(String.format(
+                        "invalid height %d at (%d, %d)", v, i / width, i % width));
+                }
+            }
+            Grid grid = new Grid(depth, width, store);
+            if (!grid.onGrid(start)) {
+                throw new ForestFormatException("start position " + start + " is not on grid");
+            }
+            return new ForestFile(grid, start);
+        }
+    }
+
+    /**
+     * Write a forest to `file`, using as few bytes per cell as its values
+     * allow.
+     *
+     * @throws IllegalArgumentException if a cell is below -1 or `start` is
+     *     not on the grid
+     */
+    public static void write(File file, Grid grid, Coord start) throws IOException {
+        if (!grid.onGrid(start)) {
+            throw new IllegalArgumentException("start position is not on grid");
+        }
+        int size = grid.getDepth() * grid.getWidth();
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            int v = grid.valueAt(i);
+            if (v < -1) {
+                throw new IllegalArgumentException("invalid height " + v + " at " + grid.coord(i));
+            }
+            max = Math.max(max, v);
+        }
+        int bytesPerCell;
+        if (max <= Byte.MAX_VALUE) {
+            bytesPerCell = 1;
+        } else if (max <= Short.MAX_VALUE) {
+            bytesPerCell = 2;
+        } else {
+            bytesPerCell = 4;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC)
+            .put((byte) VERSION)
+            .put((byte) bytesPerCell)
+            .putShort((short) 0)
+            .putInt(grid.getDepth())
+            .putInt(grid.getWidth())
+            .putInt(start.getX())
+            .putInt(start.getY());
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < size; i++) {
+                if (buf.remaining() < bytesPerCell) {
+                    ForestFile.drain(ch, buf);
+                }
+                int v = grid.valueAt(i);
+                if (bytesPerCell == 1) {
+                    buf.put((byte) v);
+                } else if (bytesPerCell == 2) {
+                    buf.putShort((short) v);
+                } else {
+                    buf.putInt(v);
+                }
+            }
+            ForestFile.drain(ch, buf);
+        }
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+}
@@ -0,0 +1,37 @@
+package lumberjack;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a forest file or stream is malformed.
+ *
+ * Errors in text input carry the 1-based row and column of the offending
+ * character; both are -1 when the error has no position.
+ */
+class ForestFormatException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int row;
+    private final int column;
+
+    public ForestFormatException(String message) {
+        super(message);
+        this.row = -1;
+        this.column = -1;
+    }
+
+    public ForestFormatException(String message, int row, int column) {
+        super(String.format("row %d, column %d: %s", row, column, message));
+        this.row = row;
+        this.column = column;
+    }
+
+    public int getRow() {
+        return this.row;
+    }
+
+    public int getColumn() {
+        return this.column;
+    }
+}
@@ -0,0 +1,201 @@
+package lumberjack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming parser for forests given as text matrices.
+ *
+ * Each line holds one row of heights separated by whitespace or by commas
+ * (optionally padded with whitespace). Blank lines are ignored, and all
+ * rows must have the same number of heights. Heights must be at least -1.
+ *
+ * Input is read in chunks from a channel and parsed byte by byte straight
+ * into a CellStore, which starts one byte wide and grows and widens as
+ * needed. No strings or boxed values are created along the way. Malformed
+ * input throws a ForestFormatException with the row and column of the
+ * offending character.
+ */
+final class ForestParser {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int INITIAL_CELLS = 1 << 10;
+
+    private CellStore store = new CellStore.ByteStore(INITIAL_CELLS);
+    private int size;
+    private int features;
+    private int depth;
+    private int width;
+
+    // position of the current character, both 1-based
+    private int row = 1;
+    private int column;
+
+    // number being parsed
+    private boolean inNumber;
+    private boolean negative;
+    private boolean sawDigit;
+    private long value;
+    private int numberColumn;
+
+    // heights in the current row, and whether a comma awaits the next one
+    private int fields;
+    private boolean pendingComma;
+
+    private ForestParser() {
+    }
+
+    /**
+     * Parse a forest from `file`.
+     */
+    public static Grid parse(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return ForestParser.parse(ch);
+        }
+    }
+
+    /**
+     * Parse a forest from `ch`, reading it to the end. The channel is not
+     * closed.
+     *
+     * @throws ForestFormatException if the input is malformed
+     */
+    public static Grid parse(ReadableByteChannel ch) throws IOException {
+        ForestParser p = new ForestParser();
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+        while (ch.read(buf) >= 0) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                p.accept(buf.get());
+            }
+            buf.clear();
+        }
+        p.accept((byte) '\n');
+        return p.finish();
+    }
+
+    private void accept(byte c) throws ForestFormatException {
+        this.column++;
+        if ('0' <= c && c <= '9') {
+            if (!this.inNumber) {
+                this.startNumber();
+            }
+            this.value = this.value * 10 + (c - '0');
+            this.sawDigit = true;
+            if (this.value > 1L + Integer.MAX_VALUE) {
+                throw this.error("number out of range", this.numberColumn);
+            }
+            return;
+        }
+        if (this.inNumber) {
+            if (c == '-') {
+                throw this.error("unexpected character '-'", this.column);
+            }
+            this.endNumber();
+        }
+        if (c == '-') {
+            this.startNumber();
+            this.negative = true;
+        } else if (c == ',') {
+            if (this.fields == 0 || this.pendingComma) {
+                throw this.error("empty field", this.column);
+            }
+            this.pendingComma = true;
+        } else if (c == '\n') {
+            this.endRow();
+            this.row++;
+            this.column = 0;
+        } else if (c != ' ' && c != '\t' && c != '\r') {
+            throw this.error(c >= 0x20 && c < 0x7f
+                ? "unexpected character '" + (char) c + "'"
+                : String.format("unexpected byte 0x%02x", c & 0xff), this.column);
+        }
+    }
+
+    private void startNumber() {
+        this.inNumber = true;
+        this.negative = false;
+        this.sawDigit = false;
+        this.value = 0;
+        this.numberColumn = this.column;
+    }
+
+    private void endNumber() throws ForestFormatException {
+        this.inNumber = false;
+        if (!this.sawDigit) {
+            throw this.error("expected a digit after '-'", this.numberColumn);
+        }
+        long h = this.negative ? -this.value : this.value;
+        if (h > Integer.MAX_VALUE) {
+            throw this.error("number out of range", this.numberColumn);
+        }
+        if (h < -1) {
+            throw this.error("invalid height " + h, this.numberColumn);
+        }
+        if (this.width > 0 && this.fields == this.width) {
+            throw this.error("row has more than " + this.width + " heights", this.numberColumn);
+        }
+        this.add((int) h);
+        this.fields++;
+        this.pendingComma = false;
+    }
+
+    private void endRow() throws ForestFormatException {
+        if (this.pendingComma) {
+            throw this.error("empty field", this.column);
+        }
+        if (this.fields == 0) {
+            return;
+        }
+        if (this.width == 0) {
+            this.width = this.fields;
+        } else if (this.fields != this.width) {
+            throw this.error(String.format("row has %d heights, expected %d",
+                this.fields, this.width), this.column);
+        }
+        this.depth++;
+        this.fields = 0;
+    }
+
+    private void add(int h) {
+        if (this.size == this.store.size()) {
+            this.store = this.store.resized(2 * this.size);
+        }
+        if (!this.store.fits(h)) {
+            this.store = this.store.widened(h);
+        }
+        this.store.set(this.size++, h);
+        if (h != 0) {
+            this.features++;
+        }
+    }
+
+    private Grid finish() throws ForestFormatException {
+        if (this.depth == 0) {
+            throw new ForestFormatException("empty forest");
+        }
+        CellStore cells;
+        if (SparseStore.preferred(this.size, this.features)) {
+            cells = new SparseStore(this.size, this.features);
+            for (int i = 0; i < this.size; i++) {
+                int h = this.store.get(i);
+                if (h != 0) {
+                    cells.set(i, h);
+                }
+            }
+        } else if (this.size < this.store.size()) {
+            cells = this.store.resized(this.size);
+        } else {
+            cells = this.store;
+        }
+        return new Grid(this.depth, this.width, cells);
+    }
+
+    private ForestFormatException error(String message, int col) {
+        return new ForestFormatException(message, this.row, col);
+    }
+}
@@ -0,0 +1,94 @@
+package lumberjack;
+
+/**
+ * Immutable snapshot of a Grid that any number of threads can share
+ * without copying.
+ *
+ * The snapshot owns a grid that is frozen (see {@link Grid#isFrozen()}):
+ * setValue throws, and every overlay that grids otherwise build lazily is
+ * built up front, so reading the grid never writes to it. The grid is held
+ * in a final field, so a snapshot is safely published to other threads
+ * however its reference gets there.
+ *
+ * Changes are made by deriving new grids: {@link #thaw()} returns a mutable
+ * copy that shares the snapshot's cells and overlays until its first write,
+ * and {@link #with(Coord, int)} a new snapshot with one cell changed.
+ */
+final class FrozenGrid {
+
+    private final Grid grid;
+
+    private FrozenGrid(Grid grid) {
+        this.grid = grid;
+    }
+
+    /**
+     * Take a snapshot of `source`. Later changes to `source` don't affect
+     * the snapshot.
+     */
+    public static FrozenGrid of(Grid source) {
+        Grid g = new Grid(source);
+        g.freeze();
+        return new FrozenGrid(g);
+    }
+
+    /**
+     * Take a snapshot of a 2d array of ints, at least 1x1 in size.
+     */
+    public static FrozenGrid of(int[][] cells) {
+        Grid g = new Grid(cells);
+        g.freeze();
+        return new FrozenGrid(g);
+    }
+
+    /**
+     * Return the frozen grid, for reading only.
+     */
+    public Grid view() {
+        return this.grid;
+    }
+
+    /**
+     * Return a mutable copy of the snapshot. Its cells and overlays are only
+     * copied once it is first changed.
+     */
+    public Grid thaw() {
+        return new Grid(this.grid);
+    }
+
+    /**
+     * Return a snapshot with the value at `p` set to `v`.
+     */
+    public FrozenGrid with(Coord p, int v) {
+        Grid g = this.thaw();
+        g.setValue(p, v);
+        g.freeze();
+        return new FrozenGrid(g);
+    }
+
+    /**
+     * Return a state on this forest starting at `start`. The state shares
+     * the snapshot's cells until it chops a tree.
+     */
+    public State toState(Coord start) {
+        if (!this.grid.onGrid(start)) {
+            throw new IndexOutOfBoundsException("lumberjack position is not on grid");
+        }
+        return new State(this.grid, start);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FrozenGrid && this.grid.equals(((FrozenGrid) other).grid);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.grid.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.grid.toString();
+    }
+}
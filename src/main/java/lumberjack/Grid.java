@@ -1,25 +1,114 @@
 package lumberjack;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * A 2d grid of integers.
+ *
+ * Grids whose backing store lives outside the Java heap (see DirectStore)
+ * should be closed once they are no longer needed.
  */
-class Grid implements Iterable<Coord3> {
-
-    // backing array for the grid
-    private int[][] grid;
+class Grid implements Iterable<Coord3>, AutoCloseable {
+
+    // backing store for the grid, stored row-major: entry (x, y) lives at
+    // index x * width + y
+    private CellStore cells;
+    private int depth;
+    private int width;
+
+    // flat index offsets of the 4 cardinal neighbors of an interior cell
+    private int[] neighborOffsets;
+
+    // bitset of flat cells, built on first use and kept up to date by
+    // setValue; shared with copies, see sharedOverlays
+    private PassabilityBits passBits;
+
+    // components of flat cells, built on first use; kept up to date by
+    // setValue while cells only become flat, and dropped otherwise; shared
+    // with copies, see sharedOverlays
+    private FlatComponents components;
+
+    // cluster graph for hierarchical path finding, built on first use;
+    // clusters are rebuilt lazily when setValue changes their flatness;
+    // shared with copies, see sharedOverlays
+    private HpaGraph hpa;
+
+    // adjacency of walkable cells, built on first use; patched by setValue
+    // unless a trench becomes walkable; shared with copies, see
+    // sharedOverlays
+    private CsrGraph csr;
+
+    // whether passBits, components, hpa and csr may be shared with a copy
+    // of this grid or the grid it was copied from. The first setValue
+    // copies the shared overlays before patching them: an array copy for
+    // the bitset and union-find, which is much cheaper than relabeling, and
+    // for the graphs a copy constructor that shares everything but the
+    // parts setValue patches.
+    private boolean sharedOverlays;
+
+    // Zobrist hash of the set of flat cells, computed on first use and kept
+    // up to date by setValue
+    private long flatHash;
+    private boolean hasFlatHash;
+
+    // set on the grid inside a FrozenGrid, which rejects setValue and has
+    // every overlay built
+    private boolean frozen;
+
+    // whether `cells` may be used by other grids, and so is copied before
+    // the first write: the store of a frozen grid, or off heap cells shared
+    // between a grid and its copies
+    private boolean sharedCells;
+
+    // whether `cells` came from the grid this one was copied from, which is
+    // the one to close it
+    private boolean borrowedCells;
 
+    /**
+     * Copy constructor.
+     *
+     * A copy of a frozen grid (see FrozenGrid) shares its cells until the
+     * first call to setValue. Off heap cells are shared by both grids until
+     * either of them calls setValue, which moves that grid to the heap.
+     * Overlays built on `g` are shared by both grids until either of them
+     * calls setValue.
+     */
     public Grid(Grid g) {
-        this(g.grid);
+        this.depth = g.depth;
+        this.width = g.width;
+        if (g.frozen || g.sharedCells || g.cells instanceof DirectStore) {
+            this.cells = g.cells;
+            this.sharedCells = true;
+            this.borrowedCells = true;
+            // frozen grids never write, and must not be written to
+            if (!g.frozen) {
+                g.sharedCells = true;
+            }
+        } else {
+            this.cells = g.cells.copy();
+        }
+        this.neighborOffsets = g.neighborOffsets;
+        if (g.passBits != null || g.components != null || g.hpa != null || g.csr != null) {
+            this.passBits = g.passBits;
+            this.components = g.components;
+            this.hpa = g.hpa;
+            this.csr = g.csr;
+            this.sharedOverlays = true;
+            // frozen grids never write, and must not be written to
+            if (!g.frozen) {
+                g.sharedOverlays = true;
+            }
+        }
+        this.flatHash = g.flatHash;
+        this.hasFlatHash = g.hasFlatHash;
     }
 
     /**
@@ -40,7 +129,8 @@ class Grid implements Iterable<Coord3> {
      * Construct a new Grid from a 2d array of ints.
      *
      * The input array must be at least 1x1 in size. A copy of the input is
-     * made.
+     * made: sparsely if few cells are non-zero, see SparseStore, otherwise
+     * in the narrowest CellStore that holds all its values.
      *
      * @param grid input array
      * @param p predicate to validate entry values with; p(valid entry) = true
@@ -51,29 +141,148 @@ class Grid implements Iterable<Coord3> {
         int m = grid[0].length;
         assert m > 0;
 
-        this.grid = new int[n][m];
+        this.depth = n;
+        this.width = m;
+        int min = 0;
+        int max = 0;
+        int features = 0;
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < m; j++) {
                 if (!p.test(grid[i][j])) {
                     throw new RuntimeException("invalid grid entry");
                 }
-                this.grid[i][j] = grid[i][j];
+                min = Math.min(min, grid[i][j]);
+                max = Math.max(max, grid[i][j]);
+                if (grid[i][j] != 0) {
+                    features++;
+                }
+            }
+        }
+        // store mostly flat grids sparsely, and other grids as narrow as the
+        // observed range of values allows
+        if (SparseStore.preferred(n * m, features)) {
+            this.cells = new SparseStore(n * m, features);
+        } else {
+            this.cells = CellStore.forRange(n * m, min, max);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                this.cells.set(i * m + j, grid[i][j]);
             }
         }
+        this.neighborOffsets = new int[] {-m, m, -1, 1};
+    }
+
+    /**
+     * Construct a new Grid of the given dimensions on top of an existing
+     * backing store, which is not copied.
+     *
+     * @param depth number of rows, at least 1
+     * @param width number of columns, at least 1
+     * @param cells backing store of depth * width cells, row-major
+     */
+    public Grid(int depth, int width, CellStore cells) {
+        if (depth < 1 || width < 1 || (long) depth * width != cells.size()) {
+            throw new IllegalArgumentException("store does not match grid dimensions");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.cells = cells;
+        this.neighborOffsets = new int[] {-width, width, -1, 1};
+    }
+
+    /**
+     * Construct a new Grid from a 2d array of ints, storing the cells off
+     * the Java heap in a DirectStore.
+     *
+     * Copies of the returned grid, and states built on it, share its cells
+     * until they change one, and then move to a heap copy; so does the grid
+     * itself once it has been copied. The caller owns the grid and should
+     * close it once none of its copies is in use; see {@link #close()}.
+     *
+     * @param grid input array, at least 1x1 in size
+     */
+    public static Grid offHeap(int[][] grid) {
+        int n = grid.length;
+        int m = grid[0].length;
+        int min = 0;
+        int max = 0;
+        for (int[] row : grid) {
+            for (int v : row) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        Grid res = new Grid(n, m, DirectStore.forRange(n * m, min, max));
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                res.cells.set(i * m + j, grid[i][j]);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Release the resources held by the backing store of the grid. The grid
+     * must not be used afterwards.
+     *
+     * Only matters for stores outside of the Java heap; for others this does
+     * nothing. Cells this grid got from the grid it was copied from are left
+     * to that grid, and cells shared with a frozen grid to the garbage
+     * collector.
+     */
+    @Override
+    public void close() {
+        if (!this.frozen && !this.borrowedCells) {
+            this.cells.close();
+        }
+    }
+
+    /**
+     * Make this grid immutable and build every lazily computed overlay, so
+     * that no method writes to it afterwards. Only FrozenGrid freezes
+     * grids, on copies it owns.
+     */
+    void freeze() {
+        // overlays shared with a mutable grid must not be built into
+        if (this.sharedOverlays) {
+            this.unshareOverlays();
+        }
+        // a snapshot outlives the grid it was copied from, which may close
+        // the off heap cells they share; mapped cells are never closed
+        if (this.borrowedCells && !(this.cells instanceof MappedStore)
+            && this.cells instanceof DirectStore) {
+            this.cells = this.cells.copy();
+            this.borrowedCells = false;
+        }
+        this.sharedCells = false;
+        this.passability();
+        this.flatFingerprint();
+        this.components().compress();
+        this.adjacency();
+        this.hierarchy().buildAll(this);
+        this.frozen = true;
+    }
+
+    /**
+     * Return true if the grid is frozen, see FrozenGrid.
+     */
+    public boolean isFrozen() {
+        return this.frozen;
     }
 
     /**
      * Return the depth (#rows) in the grid.
      */
     public int getDepth() {
-        return this.grid.length;
+        return this.depth;
     }
 
     /**
      * Return the width (#cols) in the grid.
      */
     public int getWidth() {
-        return this.grid[0].length;
+        return this.width;
     }
 
     /**
@@ -106,25 +315,12 @@ class Grid implements Iterable<Coord3> {
             || this.getWidth() != otherGrid.getWidth()) {
             return false;
         }
-        for (int i = 0; i < this.grid.length; i++) {
-            for (int j = 0; j < this.grid[0].length; j++) {
-                if (this.grid[i][j] != otherGrid.grid[i][j]) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return this.cells.sameCells(otherGrid.cells);
     }
 
     @Override
     public int hashCode() {
-        int result = 0;
-        for (int i = 0; i < this.grid.length; i++) {
-            for (int j = 0; j < this.grid[0].length; j++) {
-                result = (result << 5) - result + this.grid[i][j];
-            }
-        }
-        return result;
+        return this.cells.cellHash();
     }
 
     /**
@@ -134,33 +330,71 @@ class Grid implements Iterable<Coord3> {
      * If mark == "", just format the grid as is.
      */
     public String annotateGrid(Coord c, String mark) {
-        int maxWidth = 0;
-        for (int i = 0; i < this.getDepth(); i++) {
-            for (int j = 0; j < this.getWidth(); j++) {
-                Coord p = new Coord(i, j);
-                int entryWidth = String.format("%d", this.getValue(p)).length();
-                if (entryWidth > maxWidth) {
-                    maxWidth = entryWidth;
-                }
-            }
+        StringBuilder res = new StringBuilder();
+        try {
+            this.render(res, c, mark);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw
+            throw new AssertionError(e);
         }
-        maxWidth = Math.max(maxWidth, mark.length());
-        assert maxWidth > 0;
+        return res.toString();
+    }
 
-        String res = "";
-        for (int i = 0; i < this.getDepth(); i++) {
-            for (int j = 0; j < this.getWidth(); j++) {
-                if (mark.length() > 0 && c.getX() == i && c.getY() == j) {
-                    res += String.format(" %" + maxWidth + "s", mark);
+    /**
+     * Write the grid to `out` in the format of {@link #annotateGrid(Coord,
+     * String)}, one row at a time.
+     *
+     * Columns are as wide as the widest value, or the mark, so a first pass
+     * over the cells finds the smallest and largest values. Values are
+     * written straight into a row buffer that is reused for every row; no
+     * strings are built per cell.
+     */
+    public void render(Appendable out, Coord c, String mark) throws IOException {
+        int min = 0;
+        int max = 0;
+        for (int i = 0; i < this.cells.size(); i++) {
+            int v = this.cells.get(i);
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        int columnWidth = Math.max(Math.max(Grid.digits(min), Grid.digits(max)), mark.length());
+        int marked = mark.length() > 0 && this.onGrid(c) ? this.index(c.getX(), c.getY()) : -1;
+
+        StringBuilder row = new StringBuilder(this.width * (columnWidth + 1) + 1);
+        for (int i = 0; i < this.depth; i++) {
+            row.setLength(0);
+            for (int j = 0; j < this.width; j++) {
+                int index = i * this.width + j;
+                row.append(' ');
+                if (index == marked) {
+                    Grid.pad(row, columnWidth - mark.length());
+                    row.append(mark);
                 } else {
-                    Coord p = new Coord(i, j);
-                    res += String.format(" %" + maxWidth + "d", this.getValue(p));
+                    int v = this.cells.get(index);
+                    Grid.pad(row, columnWidth - Grid.digits(v));
+                    row.append(v);
                 }
             }
-            res += "\n";
+            row.append('\n');
+            out.append(row);
         }
+    }
 
-        return res;
+    // number of characters in the decimal form of v
+    private static int digits(int v) {
+        int n = v < 0 ? 2 : 1;
+        long a = Math.abs((long) v);
+        while (a >= 10) {
+            a /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    private static void pad(StringBuilder sb, int n) {
+        for (int k = 0; k < n; k++) {
+            sb.append(' ');
+        }
     }
 
     public int getValue(Coord p) throws NoSuchElementException {
@@ -168,26 +402,363 @@ class Grid implements Iterable<Coord3> {
             throw new NoSuchElementException("invalid grid position");
         }
 
-        return grid[p.getX()][p.getY()];
+        return this.cells.get(p.getX() * this.width + p.getY());
     }
 
+    /**
+     * Set the value at position `p`.
+     *
+     * @throws UnsupportedOperationException if the grid is frozen
+     */
     public void setValue(Coord p, int v) {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("grid is frozen");
+        }
         if (!this.onGrid(p)) {
             throw new NoSuchElementException("invalid grid position");
         }
 
-        this.grid[p.getX()][p.getY()] = v;
+        int i = p.getX() * this.width + p.getY();
+        int old = this.cells.get(i);
+        if (this.sharedOverlays) {
+            this.unshareOverlays();
+        }
+        if (!this.cells.fits(v)) {
+            CellStore narrow = this.cells;
+            if (this.sharedCells) {
+                // leave shared cells to the other grids, and only keep cells
+                // off heap in the grid that allocated them
+                this.cells = narrow.copy().widened(v);
+            } else {
+                this.cells = narrow.widened(v);
+                narrow.close();
+            }
+            this.sharedCells = false;
+            this.borrowedCells = false;
+        } else if (this.sharedCells) {
+            this.cells = this.cells.copy();
+            this.sharedCells = false;
+            this.borrowedCells = false;
+        }
+        this.cells.set(i, v);
+        if (this.passBits != null) {
+            this.passBits.set(i, v == 0);
+        }
+        if (this.components != null && (old == 0) != (v == 0)) {
+            if (v == 0) {
+                this.components.open(i);
+            } else {
+                // union-find can't split a component
+                this.components = null;
+            }
+        }
+        if (this.hpa != null && (old == 0) != (v == 0)) {
+            this.hpa.invalidate(i);
+        }
+        if (this.csr != null && !this.csr.update(i, v)) {
+            this.csr = null;
+        }
+        if (this.hasFlatHash && (old == 0) != (v == 0)) {
+            this.flatHash ^= Grid.zobrist(i);
+        }
+    }
+
+    // give this grid overlays of its own before they are changed
+    private void unshareOverlays() {
+        if (this.passBits != null) {
+            this.passBits = new PassabilityBits(this.passBits);
+        }
+        if (this.components != null) {
+            this.components = new FlatComponents(this.components);
+        }
+        if (this.hpa != null) {
+            this.hpa = new HpaGraph(this.hpa);
+        }
+        if (this.csr != null) {
+            this.csr = new CsrGraph(this.csr);
+        }
+        this.sharedOverlays = false;
+    }
+
+    /**
+     * Return a 64-bit fingerprint of which cells are flat ground: the XOR of
+     * a fixed random-looking key per flat cell.
+     *
+     * Grids of the same size with the same flat cells have the same
+     * fingerprint, whatever their trees and trenches. Computed on first use
+     * and then updated in constant time by setValue.
+     */
+    public long flatFingerprint() {
+        if (!this.hasFlatHash) {
+            long[] h = {0};
+            this.forEachIndexOf(0, i -> {
+                h[0] ^= Grid.zobrist(i);
+            });
+            this.flatHash = h[0];
+            this.hasFlatHash = true;
+        }
+        return this.flatHash;
+    }
+
+    // the Zobrist key of a flat index (splitmix64 finalizer)
+    private static long zobrist(int index) {
+        long z = (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Return the compressed sparse row adjacency of the walkable cells
+     * (value at least 0) of the grid.
+     *
+     * The adjacency is built on first use. Chopping a tree only flips a bit
+     * in it; it is rebuilt when a trench becomes walkable.
+     */
+    public CsrGraph adjacency() {
+        if (this.csr == null) {
+            this.csr = new CsrGraph(this);
+        }
+        return this.csr;
+    }
+
+    /**
+     * Return the cluster graph used for hierarchical path finding over the
+     * flat cells (value 0) of the grid.
+     *
+     * Clusters are built on first use, and only the clusters touched by a
+     * change in flatness are rebuilt afterwards.
+     */
+    public HpaGraph hierarchy() {
+        if (this.hpa == null) {
+            this.hpa = new HpaGraph(this);
+        }
+        return this.hpa;
+    }
+
+    /**
+     * Return the connected components of flat cells (value 0) of the grid.
+     *
+     * The components are labeled on first use. Later changes that turn
+     * cells flat merge components incrementally; any other change to
+     * flatness discards them to be relabeled on next use.
+     */
+    public FlatComponents components() {
+        if (this.components == null) {
+            this.components = new FlatComponents(this);
+        }
+        return this.components;
+    }
+
+    /**
+     * Return the bitset of flat cells (value 0) of the grid.
+     *
+     * The bitset is built on first use and then kept up to date as values
+     * change, so chopping a tree flips a single bit. Copies share the
+     * bitset until either grid changes, which then copies its words rather
+     * than scanning the cells again.
+     */
+    public PassabilityBits passability() {
+        if (this.passBits == null) {
+            this.passBits = new PassabilityBits(this);
+        }
+        return this.passBits;
+    }
+
+    /**
+     * Return the flat index of grid position (x, y).
+     *
+     * Flat indices run across columns first, then down rows, so they lie in
+     * the range {@code [0, depth * width)}. No bounds checking is done.
+     */
+    public int index(int x, int y) {
+        return x * this.width + y;
+    }
+
+    /**
+     * Return the grid position of the given flat index.
+     */
+    public Coord coord(int index) {
+        return new Coord(index / this.width, index % this.width);
+    }
+
+    /**
+     * Return the backing store of the grid.
+     */
+    public CellStore getCellStore() {
+        return this.cells;
+    }
+
+    /**
+     * Return the value stored at the given flat index.
+     *
+     * No bounds checking is done beyond that of the backing array.
+     */
+    public int valueAt(int index) {
+        return this.cells.get(index);
     }
 
     public Coord3 getCoord3(Coord p) throws NoSuchElementException {
         return new Coord3(p.getX(), p.getY(), this.getValue(p));
     }
 
+    /**
+     * Call `action` on every cell, across columns first, then down rows.
+     *
+     * This visits the same cells in the same order as iterating over the
+     * grid, without creating a Coord3 per cell.
+     */
+    public void forEachCell(IntTriConsumer action) {
+        int i = 0;
+        for (int x = 0; x < this.depth; x++) {
+            for (int y = 0; y < this.width; y++) {
+                action.accept(x, y, this.cells.get(i++));
+            }
+        }
+    }
+
+    /**
+     * Call `action` with the flat index of every cell holding the value `v`,
+     * in increasing index order.
+     */
+    public void forEachIndexOf(int v, IntConsumer action) {
+        if (v != 0 && this.cells.isSparse()) {
+            IntHashSet found = new IntHashSet();
+            this.cells.forEachNonZero((i, h) -> {
+                if (h == v) {
+                    found.add(i);
+                }
+            });
+            int[] indices = found.toArray();
+            Arrays.sort(indices);
+            for (int i : indices) {
+                action.accept(i);
+            }
+            return;
+        }
+
+        long[] mask = new long[(this.width + 63) >>> 6];
+        int[] ints = this.cells.intArray();
+        short[] shorts = this.cells.shortArray();
+        byte[] bytes = this.cells.byteArray();
+        int[] row = new int[ints == null && shorts == null && bytes == null ? this.width : 0];
+        for (int x = 0; x < this.depth; x++) {
+            int rowStart = x * this.width;
+            if (bytes != null) {
+                RowScanner.DEFAULT.equalsMask(bytes, rowStart, this.width, v, mask);
+            } else if (ints != null) {
+                RowScanner.DEFAULT.equalsMask(ints, rowStart, this.width, v, mask);
+            } else if (shorts != null) {
+                RowScanner.DEFAULT.equalsMask(shorts, rowStart, this.width, v, mask);
+            } else {
+                this.cells.copyRange(rowStart, row, 0, this.width);
+                RowScanner.DEFAULT.equalsMask(row, 0, this.width, v, mask);
+            }
+            for (int w = 0; w < mask.length; w++) {
+                long bits = mask[w];
+                while (bits != 0) {
+                    action.accept(rowStart + (w << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy row `x` of the grid into `dst` starting at `offset`.
+     *
+     * @throws IndexOutOfBoundsException if `x` is not a row of the grid or
+     *     `dst` is too small
+     */
+    public void copyRow(int x, int[] dst, int offset) {
+        if (x < 0 || x >= this.depth) {
+            throw new IndexOutOfBoundsException("invalid grid row");
+        }
+        this.cells.copyRange(x * this.width, dst, offset, this.width);
+    }
+
+    /**
+     * Return the smallest positive value in the grid, or 0 if there are no
+     * positive values.
+     */
+    public int minPositive() {
+        if (this.cells.isSparse()) {
+            int[] min = {Integer.MAX_VALUE};
+            this.cells.forEachNonZero((i, h) -> {
+                if (h > 0 && h < min[0]) {
+                    min[0] = h;
+                }
+            });
+            return min[0] == Integer.MAX_VALUE ? 0 : min[0];
+        }
+
+        int min = Integer.MAX_VALUE;
+        int[] ints = this.cells.intArray();
+        short[] shorts = this.cells.shortArray();
+        byte[] bytes = this.cells.byteArray();
+        int[] row = new int[ints == null && shorts == null && bytes == null ? this.width : 0];
+        for (int x = 0; x < this.depth; x++) {
+            int rowStart = x * this.width;
+            int m;
+            if (bytes != null) {
+                m = RowScanner.DEFAULT.minPositive(bytes, rowStart, this.width);
+            } else if (ints != null) {
+                m = RowScanner.DEFAULT.minPositive(ints, rowStart, this.width);
+            } else if (shorts != null) {
+                m = RowScanner.DEFAULT.minPositive(shorts, rowStart, this.width);
+            } else {
+                this.cells.copyRange(rowStart, row, 0, this.width);
+                m = RowScanner.DEFAULT.minPositive(row, 0, this.width);
+            }
+            min = Math.min(min, m);
+        }
+        return min == Integer.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * Return the number of cells holding a positive value.
+     */
+    public int countPositive() {
+        if (this.cells.isSparse()) {
+            int[] count = {0};
+            this.cells.forEachNonZero((i, h) -> {
+                if (h > 0) {
+                    count[0]++;
+                }
+            });
+            return count[0];
+        }
+
+        int count = 0;
+        for (int i = 0; i < this.cells.size(); i++) {
+            if (this.cells.get(i) > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return true if any cell holds a positive value.
+     */
+    public boolean anyPositive() {
+        if (this.cells.isSparse()) {
+            return this.countPositive() > 0;
+        }
+        for (int i = 0; i < this.cells.size(); i++) {
+            if (this.cells.get(i) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Compute the minimum Manhatten distance required to move from `from` to
      * `to`, while avoiding positions that fail the given predicate.
      *
-     * The implementation is Djikstra's algorithm.
+     * The implementation is a breadth first search, which on a grid of unit
+     * steps is Djikstra's algorithm.
      *
      * @param from starting grid position
      * @param to ending grid position
@@ -199,51 +770,128 @@ class Grid implements Iterable<Coord3> {
      */
     public Optional<Integer> minDistance(Coord from, Coord to,
                                          Predicate<Coord3> passable) {
-        // initialize frontier: the set of nodes to explore next
-        Set<Coord> frontier = new HashSet<>();
-        frontier.add(from);
-        // initialize the visited set: to visit a position means to assign
-        // distances to all its neighbors and add it to the visited set
-        Set<Coord> visited = new HashSet<>();
-
-        // Initialize minDist map, the keys represent positions whose distance
-        // has been measured. The values are best known distances to the
-        // position. Note that when a node has been visited, it's neighbors
-        // have their estimated min distances recorded.
-        Map<Coord, Integer> minDist = new HashMap<>();
-        minDist.put(from, 0);
-
-        // While the frontier is non-empty, explore the passable neighbors.
-        // Loop invariant: if x in frontier, then x is not in visited set and
-        // minDist contains an entry for x.
-        while (!frontier.isEmpty()) {
-            Set<Coord> nextFrontier = new HashSet<>();
-            for (Coord c : frontier) {
-                assert minDist.containsKey(c);
-                assert !visited.contains(c);
-                int coordDist = minDist.get(c);
-                for (Coord n : this.neighbors(c, passable)) {
-                    boolean nbVisited = visited.contains(n);
-                    if (!nbVisited || minDist.get(n) > coordDist + 1) {
-                        minDist.put(n, coordDist + 1);
-                    }
-                    if (!nbVisited) {
-                        nextFrontier.add(n);
-                    }
-                }
-                visited.add(c);
-            }
-            frontier = nextFrontier;
+        return this.minDistance(from, to, this.cellPredicate(passable));
+    }
+
+    /**
+     * Compute the minimum Manhatten distance required to move from `from` to
+     * `to`, while avoiding cells that fail the given predicate.
+     *
+     * Same as {@link #minDistance(Coord, Coord, Predicate)}, but the
+     * predicate is tested on flat cell indices and values so that no
+     * Coord3 objects are created while exploring.
+     *
+     * @param from starting grid position
+     * @param to ending grid position
+     * @param passable predicate on cell index and value
+     *
+     * @return Return the minimum travel distance, or Optional.empty() if
+     *     there is no path
+     */
+    public Optional<Integer> minDistance(Coord from, Coord to, CellPredicate passable) {
+        if (!this.onGrid(from)) {
+            return from.equals(to) ? Optional.of(0) : Optional.empty();
+        }
+        if (!this.onGrid(to)) {
+            return Optional.empty();
         }
 
-        if (minDist.containsKey(to)) {
-            return Optional.of(minDist.get(to));
+        Bfs bfs = this.search(this.index(from.getX(), from.getY()),
+                              this.index(to.getX(), to.getY()), passable);
+        if (bfs.minDist.containsKey(bfs.target)) {
+            return Optional.of(bfs.minDist.get(bfs.target, -1));
         } else {
             // If we didn't reach `to` along the way, the return Optional.empty()
             return Optional.empty();
         }
     }
 
+    /**
+     * Return a shortest route from `from` to `to`, while avoiding cells that
+     * fail the given predicate, as the flat indices of the cells walked
+     * through: `from` first and `to` last.
+     *
+     * @return the route, or an empty array if there is no path
+     */
+    public int[] route(int from, int to, CellPredicate passable) {
+        Bfs bfs = this.search(from, to, passable);
+        int d = bfs.minDist.get(to, -1);
+        if (d < 0) {
+            return new int[0];
+        }
+        // walk back from `to`, stepping to any neighbor one closer to `from`;
+        // only explored (so passable) cells have a distance
+        int[] res = new int[d + 1];
+        int[] c = {to};
+        res[d] = to;
+        for (int k = d - 1; k >= 0; k--) {
+            int want = k;
+            int next = c[0];
+            this.forEachNeighbor(next, (n, h) -> {
+                return true;
+            }, n -> {
+                if (bfs.minDist.get(n, -1) == want) {
+                    c[0] = n;
+                }
+            });
+            res[k] = c[0];
+        }
+        return res;
+    }
+
+    // run a breadth first search from `from` until `to` is found or every
+    // reachable cell is explored
+    private Bfs search(int from, int to, CellPredicate passable) {
+        Bfs bfs = new Bfs(from, to);
+        // Breadth first: cells are dequeued in order of distance, so a cell's
+        // distance is final the moment it's first discovered.
+        while (bfs.head < bfs.tail && !bfs.found) {
+            int c = bfs.queue[bfs.head++];
+            bfs.nextDist = bfs.minDist.get(c, -1) + 1;
+            this.forEachNeighbor(c, passable, bfs);
+        }
+        return bfs;
+    }
+
+    /**
+     * State of a single breadth first search. It doubles as the neighbor
+     * callback so that exploring a cell allocates nothing.
+     */
+    private static final class Bfs implements IntConsumer {
+        // best known distances, keyed by flat index
+        final IntIntHashMap minDist = new IntIntHashMap();
+        // FIFO of discovered cells; queue[head, tail) is still to be explored
+        int[] queue = new int[16];
+        int head;
+        int tail;
+        final int target;
+        boolean found;
+        // distance assigned to neighbors of the cell being explored
+        int nextDist;
+
+        Bfs(int source, int target) {
+            this.target = target;
+            this.minDist.put(source, 0);
+            this.queue[this.tail++] = source;
+            this.found = source == target;
+        }
+
+        @Override
+        public void accept(int n) {
+            if (this.minDist.containsKey(n)) {
+                return;
+            }
+            this.minDist.put(n, this.nextDist);
+            if (n == this.target) {
+                this.found = true;
+            }
+            if (this.tail == this.queue.length) {
+                this.queue = Arrays.copyOf(this.queue, 2 * this.queue.length);
+            }
+            this.queue[this.tail++] = n;
+        }
+    }
+
     /**
      * Return the set of neighboring grid positions that are passable
      * according to the given predicate.
@@ -253,14 +901,70 @@ class Grid implements Iterable<Coord3> {
      *     position/value (encoded as a Coord3) is passable
      */
     public Set<Coord> neighbors(Coord p, Predicate<Coord3> passable) {
-        Predicate<Coord> passableClosure = c -> {
-            Coord3 coordWithValue = new Coord3(c.getX(), c.getY(), this.getValue(c));
-            return passable.test(coordWithValue);
+        Set<Coord> res = new HashSet<>();
+        if (!this.onGrid(p)) {
+            return res;
+        }
+        this.forEachNeighbor(this.index(p.getX(), p.getY()), this.cellPredicate(passable),
+            n -> {
+                res.add(this.coord(n));
+            });
+        return res;
+    }
+
+    /**
+     * Call `action` with the flat index of every cardinal neighbor of the
+     * cell at flat index `index` that is passable according to the given
+     * predicate.
+     *
+     * Nothing is allocated. Interior cells use a fixed table of index
+     * offsets and only cells on the border of the grid pay for bounds
+     * checks.
+     *
+     * @param index flat index of a valid grid position
+     * @param passable predicate on neighbor index and value
+     * @param action called once per passable neighbor
+     */
+    public void forEachNeighbor(int index, CellPredicate passable, IntConsumer action) {
+        int x = index / this.width;
+        int y = index - x * this.width;
+        if (x > 0 && x < this.depth - 1 && y > 0 && y < this.width - 1) {
+            for (int offset : this.neighborOffsets) {
+                int n = index + offset;
+                if (passable.test(n, this.cells.get(n))) {
+                    action.accept(n);
+                }
+            }
+            return;
+        }
+
+        if (x > 0) {
+            this.visitIfPassable(index - this.width, passable, action);
+        }
+        if (x < this.depth - 1) {
+            this.visitIfPassable(index + this.width, passable, action);
+        }
+        if (y > 0) {
+            this.visitIfPassable(index - 1, passable, action);
+        }
+        if (y < this.width - 1) {
+            this.visitIfPassable(index + 1, passable, action);
+        }
+    }
+
+    private void visitIfPassable(int n, CellPredicate passable, IntConsumer action) {
+        if (passable.test(n, this.cells.get(n))) {
+            action.accept(n);
+        }
+    }
+
+    /**
+     * Adapt a {@code Predicate<Coord3>} to a CellPredicate on this grid.
+     */
+    private CellPredicate cellPredicate(Predicate<Coord3> passable) {
+        return (n, v) -> {
+            return passable.test(new Coord3(n / this.width, n % this.width, v));
         };
-        return p.cardinalNeighbors()
-            .stream()
-            .filter(this.onGridPredicate().and(passableClosure))
-            .collect(Collectors.toSet());
     }
 
     @Override
@@ -271,33 +975,36 @@ class Grid implements Iterable<Coord3> {
     /**
      * Iterate over a Grid by returning entries across columns first, then
      * down rows.
+     *
+     * Each step allocates a Coord3; hot loops should prefer
+     * {@link Grid#forEachCell(IntTriConsumer)} and the whole grid
+     * reductions.
      */
     class GridIterator implements Iterator<Coord3> {
-        // position to return next
+        // position to return next, and its flat index
         private int x;
         private int y;
+        private int index;
         private Grid grid;
 
         public GridIterator(Grid grid) {
             this.x = 0;
             this.y = 0;
+            this.index = 0;
             this.grid = grid;
         }
 
         @Override
         public boolean hasNext() {
-            // we assume that (x,y) is a valid grid position, unless there are no
-            // more elements to traverse in which case we're at x == #rows && y == 0
-            if (x == grid.getDepth() && y == 0) {
-                return false;
-            } else {
-                return true;
-            }
+            return this.index < this.grid.cells.size();
         }
 
         @Override
         public Coord3 next() {
-            Coord3 res = new Coord3(x, y, grid.getValue(new Coord(x, y)));
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Coord3 res = new Coord3(x, y, this.grid.cells.get(this.index++));
 
             if (this.y == grid.getWidth() - 1) {
                 this.y = 0;
@@ -0,0 +1,386 @@
+package lumberjack;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hierarchical path finding (HPA*) over the flat ground of a grid.
+ *
+ * The grid is split into square clusters. Every flat cell on the border of
+ * a cluster with a flat neighbor in another cluster is an entrance, and
+ * each cluster stores the exact distances between its entrances moving
+ * inside the cluster only. A query searches the abstract graph of
+ * entrances and only explores cells in the clusters of its two ends.
+ *
+ * Unlike textbook HPA*, which keeps a single entrance per border segment,
+ * every crossing cell is an entrance here. Any path leaves and enters
+ * clusters through entrances, so distances on the abstract graph are exact.
+ *
+ * Clusters are immutable and shared between copies; a change to the
+ * flatness of a cell only rebuilds the cluster holding it and the clusters
+ * whose entrances it borders, the next time the graph is queried.
+ */
+class HpaGraph {
+
+    public static final int DEFAULT_CLUSTER_SIZE = 16;
+
+    private final int depth;
+    private final int width;
+    private final int size;
+    // clusters per row and per column of clusters
+    private final int clusterRows;
+    private final int clusterCols;
+    // clusters, row-major; a null entry is rebuilt on next query
+    private final Cluster[] clusters;
+
+    /**
+     * The entrances of one cluster and the distances between them.
+     */
+    private static final class Cluster {
+        // flat indices of the entrances, sorted
+        final int[] entrances;
+        // dist[a * entrances.length + b] is the distance from entrance a to
+        // entrance b inside the cluster, or -1
+        final int[] dist;
+
+        Cluster(int[] entrances, int[] dist) {
+            this.entrances = entrances;
+            this.dist = dist;
+        }
+    }
+
+    public HpaGraph(Grid grid) {
+        this(grid, DEFAULT_CLUSTER_SIZE);
+    }
+
+    /**
+     * Build the cluster graph of `grid` with clusters of `size` x `size`
+     * cells (smaller at the bottom and right edges).
+     */
+    public HpaGraph(Grid grid, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("cluster size must be positive");
+        }
+        this.depth = grid.getDepth();
+        this.width = grid.getWidth();
+        this.size = size;
+        this.clusterRows = (this.depth + size - 1) / size;
+        this.clusterCols = (this.width + size - 1) / size;
+        this.clusters = new Cluster[this.clusterRows * this.clusterCols];
+    }
+
+    /**
+     * Copy constructor. Clusters are shared, not copied.
+     */
+    public HpaGraph(HpaGraph copy) {
+        this.depth = copy.depth;
+        this.width = copy.width;
+        this.size = copy.size;
+        this.clusterRows = copy.clusterRows;
+        this.clusterCols = copy.clusterCols;
+        this.clusters = copy.clusters.clone();
+    }
+
+    /**
+     * Record that the flatness of the cell at flat index `index` changed.
+     *
+     * The cell's cluster is rebuilt, and so is any neighboring cluster the
+     * cell is adjacent to, since the cell may be one end of a crossing.
+     */
+    public void invalidate(int index) {
+        int x = index / this.width;
+        int y = index - x * this.width;
+        int cx = x / this.size;
+        int cy = y / this.size;
+        this.clusters[cx * this.clusterCols + cy] = null;
+        if (x % this.size == 0 && cx > 0) {
+            this.clusters[(cx - 1) * this.clusterCols + cy] = null;
+        }
+        if (x % this.size == this.size - 1 && cx < this.clusterRows - 1) {
+            this.clusters[(cx + 1) * this.clusterCols + cy] = null;
+        }
+        if (y % this.size == 0 && cy > 0) {
+            this.clusters[cx * this.clusterCols + cy - 1] = null;
+        }
+        if (y % this.size == this.size - 1 && cy < this.clusterCols - 1) {
+            this.clusters[cx * this.clusterCols + cy + 1] = null;
+        }
+    }
+
+    /**
+     * Build every cluster that isn't built yet. Distance queries then only
+     * read the graph, so it can be shared by several threads as long as
+     * `grid` isn't changed.
+     */
+    public void buildAll(Grid grid) {
+        for (int c = 0; c < this.clusters.length; c++) {
+            this.cluster(grid, c);
+        }
+    }
+
+    /**
+     * Compute the minimum number of cardinal moves from `from` to `to`
+     * across flat cells of `grid`; `to` itself need not be flat.
+     *
+     * @param grid the grid this graph was built for, in its current state
+     * @param from flat index of the starting cell
+     * @param to flat index of the destination cell
+     * @return the distance, or -1 if `to` is unreachable
+     */
+    public int distance(Grid grid, int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+        // The last step onto `to` comes from a flat neighbor or from `from`
+        // itself, so find the nearest such neighbor.
+        int[] targets = new int[4];
+        int numTargets = 0;
+        int x = to / this.width;
+        int y = to - x * this.width;
+        int[][] steps = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+        for (int[] step : steps) {
+            int nx = x + step[0];
+            int ny = y + step[1];
+            if (0 <= nx && nx < this.depth && 0 <= ny && ny < this.width) {
+                int n = nx * this.width + ny;
+                if (n == from) {
+                    return 1;
+                }
+                if (grid.valueAt(n) == 0) {
+                    targets[numTargets++] = n;
+                }
+            }
+        }
+        if (numTargets == 0) {
+            return -1;
+        }
+
+        IntIntHashMap dist = new IntIntHashMap();
+        LongHeap open = new LongHeap();
+
+        // Seed the search from inside the starting cluster. A starting cell
+        // that isn't flat isn't an entrance, but it may still step straight
+        // across a cluster border, so seed from those cells as well.
+        int best = this.seed(grid, from, 0, targets, numTargets, dist, open);
+        if (grid.valueAt(from) != 0) {
+            int[] crossings = new int[4];
+            int[] numCrossings = {0};
+            this.forEachCrossing(grid, from, n -> {
+                crossings[numCrossings[0]++] = n;
+            });
+            for (int k = 0; k < numCrossings[0]; k++) {
+                best = Math.min(best,
+                    this.seed(grid, crossings[k], 1, targets, numTargets, dist, open));
+            }
+        }
+
+        // exit[e] is the cost of finishing from entrance e of a target's
+        // cluster: the distance inside the cluster to the nearest target,
+        // plus the final step onto `to`.
+        IntIntHashMap exit = new IntIntHashMap();
+        for (int k = 0; k < numTargets; k++) {
+            int c = this.clusterOf(targets[k]);
+            int[] toTarget = this.localDistances(grid, targets[k], c);
+            for (int e : this.cluster(grid, c).entrances) {
+                int d = toTarget[this.localIndex(e, c)];
+                if (d >= 0 && d + 1 < exit.get(e, Integer.MAX_VALUE)) {
+                    exit.put(e, d + 1);
+                }
+            }
+        }
+
+        // Dijkstra over entrances, stopping once nothing can beat `best`
+        while (!open.isEmpty()) {
+            long top = open.poll();
+            int d = (int) (top >>> 32);
+            int e = (int) top;
+            if (d >= best) {
+                break;
+            }
+            if (d > dist.get(e, Integer.MAX_VALUE)) {
+                // stale heap entry
+                continue;
+            }
+            int fin = exit.get(e, -1);
+            if (fin >= 0) {
+                best = Math.min(best, d + fin);
+            }
+
+            int c = this.clusterOf(e);
+            Cluster cluster = this.cluster(grid, c);
+            int a = Arrays.binarySearch(cluster.entrances, e);
+            int k = cluster.entrances.length;
+            for (int b = 0; b < k; b++) {
+                int db = cluster.dist[a * k + b];
+                if (db > 0) {
+                    this.relax(dist, open, cluster.entrances[b], d + db);
+                }
+            }
+            this.forEachCrossing(grid, e, n -> {
+                this.relax(dist, open, n, d + 1);
+            });
+        }
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+    /**
+     * Search the cluster of `source`, which is `offset` moves from the
+     * start: push the cluster's entrances onto the open list and return the
+     * distance to `to` through targets inside the cluster, or
+     * Integer.MAX_VALUE.
+     */
+    private int seed(Grid grid, int source, int offset, int[] targets, int numTargets,
+                     IntIntHashMap dist, LongHeap open) {
+        int c = this.clusterOf(source);
+        int[] local = this.localDistances(grid, source, c);
+        int best = Integer.MAX_VALUE;
+        for (int k = 0; k < numTargets; k++) {
+            if (this.clusterOf(targets[k]) == c) {
+                int d = local[this.localIndex(targets[k], c)];
+                if (d >= 0) {
+                    best = Math.min(best, offset + d + 1);
+                }
+            }
+        }
+        for (int e : this.cluster(grid, c).entrances) {
+            int d = local[this.localIndex(e, c)];
+            if (d >= 0) {
+                this.relax(dist, open, e, offset + d);
+            }
+        }
+        return best;
+    }
+
+    private void relax(IntIntHashMap dist, LongHeap open, int e, int d) {
+        if (d < dist.get(e, Integer.MAX_VALUE)) {
+            dist.put(e, d);
+            open.add(((long) d << 32) | e);
+        }
+    }
+
+    /**
+     * Call `action` with every flat neighbor of cell `i` lying in a
+     * different cluster than `i`.
+     */
+    private void forEachCrossing(Grid grid, int i, IntConsumer action) {
+        int c = this.clusterOf(i);
+        grid.forEachNeighbor(i, (n, h) -> {
+            return h == 0 && this.clusterOf(n) != c;
+        }, action);
+    }
+
+    private int clusterOf(int index) {
+        int x = index / this.width;
+        int y = index - x * this.width;
+        return (x / this.size) * this.clusterCols + y / this.size;
+    }
+
+    /**
+     * Return the index of cell `index` within the row-major cells of
+     * cluster `c`.
+     */
+    private int localIndex(int index, int c) {
+        int x = index / this.width - (c / this.clusterCols) * this.size;
+        int y = index % this.width - (c % this.clusterCols) * this.size;
+        return x * this.clusterWidth(c) + y;
+    }
+
+    private int clusterWidth(int c) {
+        int y0 = (c % this.clusterCols) * this.size;
+        return Math.min(this.size, this.width - y0);
+    }
+
+    private int clusterDepth(int c) {
+        int x0 = (c / this.clusterCols) * this.size;
+        return Math.min(this.size, this.depth - x0);
+    }
+
+    /**
+     * Return cluster `c`, building it first if needed.
+     */
+    private Cluster cluster(Grid grid, int c) {
+        if (this.clusters[c] == null) {
+            this.clusters[c] = this.buildCluster(grid, c);
+        }
+        return this.clusters[c];
+    }
+
+    private Cluster buildCluster(Grid grid, int c) {
+        int x0 = (c / this.clusterCols) * this.size;
+        int y0 = (c % this.clusterCols) * this.size;
+        int cd = this.clusterDepth(c);
+        int cw = this.clusterWidth(c);
+
+        IntHashSet found = new IntHashSet();
+        for (int x = x0; x < x0 + cd; x++) {
+            for (int y = y0; y < y0 + cw; y++) {
+                boolean border = x == x0 || x == x0 + cd - 1 || y == y0 || y == y0 + cw - 1;
+                int i = x * this.width + y;
+                if (border && grid.valueAt(i) == 0) {
+                    this.forEachCrossing(grid, i, n -> {
+                        found.add(i);
+                    });
+                }
+            }
+        }
+        int[] entrances = found.toArray();
+        Arrays.sort(entrances);
+
+        int k = entrances.length;
+        int[] dist = new int[k * k];
+        for (int a = 0; a < k; a++) {
+            int[] local = this.localDistances(grid, entrances[a], c);
+            for (int b = 0; b < k; b++) {
+                dist[a * k + b] = local[this.localIndex(entrances[b], c)];
+            }
+        }
+        return new Cluster(entrances, dist);
+    }
+
+    /**
+     * Breadth first search from `source` across flat cells without leaving
+     * cluster `c`; `source` itself need not be flat.
+     *
+     * @return distances indexed by {@link #localIndex(int, int)}, -1 for
+     *     cells that weren't reached
+     */
+    private int[] localDistances(Grid grid, int source, int c) {
+        int x0 = (c / this.clusterCols) * this.size;
+        int y0 = (c % this.clusterCols) * this.size;
+        int cd = this.clusterDepth(c);
+        int cw = this.clusterWidth(c);
+        int[] dist = new int[cd * cw];
+        Arrays.fill(dist, -1);
+        // queue of local indices
+        int[] queue = new int[dist.length];
+        int head = 0;
+        int tail = 0;
+        int s = this.localIndex(source, c);
+        dist[s] = 0;
+        queue[tail++] = s;
+        while (head < tail) {
+            int l = queue[head++];
+            int lx = l / cw;
+            int ly = l - lx * cw;
+            int i = (x0 + lx) * this.width + y0 + ly;
+            int next = dist[l] + 1;
+            if (lx > 0 && dist[l - cw] < 0 && grid.valueAt(i - this.width) == 0) {
+                dist[l - cw] = next;
+                queue[tail++] = l - cw;
+            }
+            if (lx < cd - 1 && dist[l + cw] < 0 && grid.valueAt(i + this.width) == 0) {
+                dist[l + cw] = next;
+                queue[tail++] = l + cw;
+            }
+            if (ly > 0 && dist[l - 1] < 0 && grid.valueAt(i - 1) == 0) {
+                dist[l - 1] = next;
+                queue[tail++] = l - 1;
+            }
+            if (ly < cw - 1 && dist[l + 1] < 0 && grid.valueAt(i + 1) == 0) {
+                dist[l + 1] = next;
+                queue[tail++] = l + 1;
+            }
+        }
+        return dist;
+    }
+}
@@ -0,0 +1,159 @@
+package lumberjack;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of primitive ints using open addressing with linear probing.
+ *
+ * Used in place of {@code HashSet<Coord>} on hot paths, where the elements
+ * are flat grid indices (see {@link Grid#index(int, int)}). There is no
+ * boxing and the table is a single int array, so lookups do not chase
+ * pointers. Elements cannot be removed, only the whole set cleared.
+ */
+class IntHashSet {
+
+    // value marking an empty slot; the element FREE itself is tracked by
+    // `hasFree`
+    private static final int FREE = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int mask;
+    private boolean hasFree;
+    private int size;
+
+    public IntHashSet() {
+        this(16);
+    }
+
+    /**
+     * Create an empty set with room for `expected` elements before resizing.
+     */
+    public IntHashSet(int expected) {
+        int capacity = tableSize(expected);
+        this.keys = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Add `k` to the set; return true if it was not already present.
+     */
+    public boolean add(int k) {
+        if (k == FREE) {
+            if (this.hasFree) {
+                return false;
+            }
+            this.hasFree = true;
+            this.size++;
+            return true;
+        }
+        int i = IntHashSet.mix(k) & this.mask;
+        while (this.keys[i] != FREE) {
+            if (this.keys[i] == k) {
+                return false;
+            }
+            i = (i + 1) & this.mask;
+        }
+        this.keys[i] = k;
+        if (++this.size > (this.mask + 1) * LOAD_FACTOR) {
+            this.rehash(this.keys.length * 2);
+        }
+        return true;
+    }
+
+    public boolean contains(int k) {
+        if (k == FREE) {
+            return this.hasFree;
+        }
+        int i = IntHashSet.mix(k) & this.mask;
+        while (this.keys[i] != FREE) {
+            if (this.keys[i] == k) {
+                return true;
+            }
+            i = (i + 1) & this.mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Remove all elements, keeping the allocated table.
+     */
+    public void clear() {
+        Arrays.fill(this.keys, FREE);
+        this.hasFree = false;
+        this.size = 0;
+    }
+
+    /**
+     * Call `action` on every element, in no particular order.
+     */
+    public void forEach(IntConsumer action) {
+        if (this.hasFree) {
+            action.accept(FREE);
+        }
+        for (int k : this.keys) {
+            if (k != FREE) {
+                action.accept(k);
+            }
+        }
+    }
+
+    /**
+     * Return the elements in a new array, in no particular order.
+     */
+    public int[] toArray() {
+        int[] res = new int[this.size];
+        int j = 0;
+        if (this.hasFree) {
+            res[j++] = FREE;
+        }
+        for (int k : this.keys) {
+            if (k != FREE) {
+                res[j++] = k;
+            }
+        }
+        return res;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = this.keys;
+        this.keys = new int[capacity];
+        this.mask = capacity - 1;
+        for (int k : old) {
+            if (k != FREE) {
+                int i = IntHashSet.mix(k) & this.mask;
+                while (this.keys[i] != FREE) {
+                    i = (i + 1) & this.mask;
+                }
+                this.keys[i] = k;
+            }
+        }
+    }
+
+    /**
+     * Return a power of two table size holding `expected` elements under
+     * the load factor.
+     */
+    static int tableSize(int expected) {
+        long needed = Math.max(4, (long) Math.ceil(expected / LOAD_FACTOR));
+        return (int) Math.min(1 << 30, Long.highestOneBit(needed - 1) << 1);
+    }
+
+    /**
+     * Scramble the bits of `k` so that nearby grid indices spread out over
+     * the table (Fibonacci hashing).
+     */
+    static int mix(int k) {
+        int h = k * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
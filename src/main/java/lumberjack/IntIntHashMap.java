@@ -0,0 +1,168 @@
+package lumberjack;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive ints to primitive ints using open addressing with
+ * linear probing.
+ *
+ * Used in place of {@code HashMap<Coord, Integer>} on hot paths, where the
+ * keys are flat grid indices (see {@link Grid#index(int, int)}). Keys and
+ * values live in two parallel int arrays. Entries cannot be removed, only
+ * the whole map cleared.
+ */
+class IntIntHashMap {
+
+    // key marking an empty slot; the key FREE itself is tracked by `hasFree`
+    private static final int FREE = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private boolean hasFree;
+    private int freeValue;
+    private int size;
+
+    /**
+     * Callback receiving one map entry.
+     */
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(int key, int value);
+    }
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Copy constructor.
+     */
+    public IntIntHashMap(IntIntHashMap copy) {
+        this.keys = copy.keys.clone();
+        this.values = copy.values.clone();
+        this.mask = copy.mask;
+        this.hasFree = copy.hasFree;
+        this.freeValue = copy.freeValue;
+        this.size = copy.size;
+    }
+
+    /**
+     * Create an empty map with room for `expected` entries before resizing.
+     */
+    public IntIntHashMap(int expected) {
+        int capacity = IntHashSet.tableSize(expected);
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Associate `v` with `k`, replacing any previous value.
+     */
+    public void put(int k, int v) {
+        if (k == FREE) {
+            if (!this.hasFree) {
+                this.hasFree = true;
+                this.size++;
+            }
+            this.freeValue = v;
+            return;
+        }
+        int i = IntHashSet.mix(k) & this.mask;
+        while (this.keys[i] != FREE) {
+            if (this.keys[i] == k) {
+                this.values[i] = v;
+                return;
+            }
+            i = (i + 1) & this.mask;
+        }
+        this.keys[i] = k;
+        this.values[i] = v;
+        if (++this.size > (this.mask + 1) * LOAD_FACTOR) {
+            this.rehash(this.keys.length * 2);
+        }
+    }
+
+    /**
+     * Return the value associated with `k`, or `missing` if there is none.
+     */
+    public int get(int k, int missing) {
+        if (k == FREE) {
+            return this.hasFree ? this.freeValue : missing;
+        }
+        int i = IntHashSet.mix(k) & this.mask;
+        while (this.keys[i] != FREE) {
+            if (this.keys[i] == k) {
+                return this.values[i];
+            }
+            i = (i + 1) & this.mask;
+        }
+        return missing;
+    }
+
+    public boolean containsKey(int k) {
+        if (k == FREE) {
+            return this.hasFree;
+        }
+        int i = IntHashSet.mix(k) & this.mask;
+        while (this.keys[i] != FREE) {
+            if (this.keys[i] == k) {
+                return true;
+            }
+            i = (i + 1) & this.mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Call `action` on every entry, in no particular order.
+     */
+    public void forEach(EntryConsumer action) {
+        if (this.hasFree) {
+            action.accept(FREE, this.freeValue);
+        }
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != FREE) {
+                action.accept(this.keys[i], this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Remove all entries, keeping the allocated tables.
+     */
+    public void clear() {
+        Arrays.fill(this.keys, FREE);
+        this.hasFree = false;
+        this.size = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            int k = oldKeys[j];
+            if (k != FREE) {
+                int i = IntHashSet.mix(k) & this.mask;
+                while (this.keys[i] != FREE) {
+                    i = (i + 1) & this.mask;
+                }
+                this.keys[i] = k;
+                this.values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package lumberjack;
+
+/**
+ * Callback receiving a grid cell as row, column and value.
+ *
+ * This is the allocation free counterpart of iterating over Coord3 objects.
+ */
+@FunctionalInterface
+interface IntTriConsumer {
+
+    void accept(int x, int y, int value);
+}
@@ -0,0 +1,249 @@
+package lumberjack;
+
+/**
+ * Jump point search restricted to cardinal moves, for uniform cost grids
+ * with large open areas.
+ *
+ * Open ground has many shortest paths between two cells that differ only
+ * in where they turn. Jump point search follows one canonical path of
+ * each family: a vertical run may turn left or right at any cell, but a
+ * horizontal run only turns where an obstacle forces it (a side cell is
+ * open while the cell behind it is blocked). Runs are scanned in a loop
+ * straight across the passability bitset, and only the cells where a run
+ * can turn (the jump points) go through the A* open list, with the
+ * Manhattan distance to the destination as heuristic. On open ground that
+ * is a handful of heap entries where BFS queues every cell within reach.
+ *
+ * The walkable cells are the flat ones plus the start and the destination,
+ * which may be trees, so distances are exactly those of BFS.
+ */
+class JumpPointSearch {
+
+    private final PassabilityBits flat;
+    private final int depth;
+    private final int width;
+    private final int from;
+    private final int to;
+    // number of words per row of the bitset
+    private final int stride;
+    private final int fromX;
+    private final int fromY;
+    private final int toX;
+    private final int toY;
+
+    // number of jump points taken off the open list
+    private int expanded;
+
+    /**
+     * Prepare a search from flat index `from` to flat index `to` on `grid`.
+     */
+    public JumpPointSearch(Grid grid, int from, int to) {
+        this.flat = grid.passability();
+        this.depth = grid.getDepth();
+        this.width = grid.getWidth();
+        this.from = from;
+        this.to = to;
+        this.stride = (this.width + 63) >>> 6;
+        this.fromX = from / this.width;
+        this.fromY = from - this.fromX * this.width;
+        this.toX = to / this.width;
+        this.toY = to - this.toX * this.width;
+    }
+
+    /**
+     * Compute the minimum number of cardinal moves from the start to the
+     * destination.
+     *
+     * @return the distance, or -1 if the destination is unreachable
+     */
+    public int distance() {
+        if (this.from == this.to) {
+            return 0;
+        }
+        // cost from the start and parent of every jump point found so far
+        IntIntHashMap cost = new IntIntHashMap();
+        IntIntHashMap parent = new IntIntHashMap();
+        IntHashSet closed = new IntHashSet();
+        LongHeap open = new LongHeap();
+        cost.put(this.from, 0);
+        parent.put(this.from, this.from);
+        open.add(((long) this.manhattan(this.from, this.to) << 32) | this.from);
+
+        int[] jumps = new int[4];
+        while (!open.isEmpty()) {
+            int c = (int) open.poll();
+            if (!closed.add(c)) {
+                // stale entry for a cell that was reached cheaper
+                continue;
+            }
+            int g = cost.get(c, -1);
+            if (c == this.to) {
+                return g;
+            }
+            this.expanded++;
+
+            int n = this.successors(c, parent.get(c, c), jumps);
+            for (int k = 0; k < n; k++) {
+                int j = jumps[k];
+                int d = g + this.manhattan(c, j);
+                if (d < cost.get(j, Integer.MAX_VALUE)) {
+                    cost.put(j, d);
+                    parent.put(j, c);
+                    open.add(((long) (d + this.manhattan(j, this.to)) << 32) | j);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the number of jump points expanded by the last search.
+     */
+    public int expanded() {
+        return this.expanded;
+    }
+
+    // store the jump points reached from `c`, entered from its parent `p`,
+    // into `out` and return how many there are. A run carries on in its
+    // direction or turns sideways; the start tries all four directions.
+    private int successors(int c, int p, int[] out) {
+        int x = c / this.width;
+        int y = c - x * this.width;
+        int px = p / this.width;
+        int py = p - px * this.width;
+        int n = 0;
+        if (c == p || px != x) {
+            n = JumpPointSearch.add(out, n, this.jumpHorizontal(x, y, -1));
+            n = JumpPointSearch.add(out, n, this.jumpHorizontal(x, y, 1));
+        }
+        if (c == p || py != y) {
+            n = JumpPointSearch.add(out, n, this.jumpVertical(x, y, -1));
+            n = JumpPointSearch.add(out, n, this.jumpVertical(x, y, 1));
+        }
+        if (c != p && px == x) {
+            n = JumpPointSearch.add(out, n, this.jumpHorizontal(x, y, y > py ? 1 : -1));
+        } else if (c != p) {
+            n = JumpPointSearch.add(out, n, this.jumpVertical(x, y, x > px ? 1 : -1));
+        }
+        return n;
+    }
+
+    private static int add(int[] out, int n, int jump) {
+        if (jump >= 0) {
+            out[n++] = jump;
+        }
+        return n;
+    }
+
+    // run along row x from column y in direction dy, returning the first
+    // jump point: the destination, or a cell with a forced turn. Returns
+    // -1 if the run hits an obstacle or the edge first.
+    //
+    // The run is scanned 64 cells at a time: a cell forces a turn where the
+    // row above or below has a rising edge in the direction of travel, so
+    // the first jump point and the first obstacle of a word are each one
+    // bit scan away.
+    private int jumpHorizontal(int x, int y, int dy) {
+        int s = y + dy;
+        if (s < 0 || s >= this.width) {
+            return -1;
+        }
+        int w = s >>> 6;
+        long mask = dy > 0 ? -1L << s : -1L >>> (63 - (s & 63));
+        while (true) {
+            long cur = this.row(x, w);
+            long up = this.row(x - 1, w);
+            long down = this.row(x + 1, w);
+            long forced;
+            if (dy > 0) {
+                // cells behind are to the left, at the next lower bit
+                long upBehind = up << 1 | (w > 0 ? this.row(x - 1, w - 1) >>> 63 : 0);
+                long downBehind = down << 1 | (w > 0 ? this.row(x + 1, w - 1) >>> 63 : 0);
+                forced = up & ~upBehind | down & ~downBehind;
+            } else {
+                boolean last = w == this.stride - 1;
+                long upBehind = up >>> 1 | (last ? 0 : this.row(x - 1, w + 1) << 63);
+                long downBehind = down >>> 1 | (last ? 0 : this.row(x + 1, w + 1) << 63);
+                forced = up & ~upBehind | down & ~downBehind;
+            }
+            long stops = forced & cur & mask;
+            if (x == this.toX && w == this.toY >>> 6) {
+                stops |= 1L << this.toY & mask;
+            }
+            long blocked = ~cur & mask;
+            if (dy > 0) {
+                int stop = Long.numberOfTrailingZeros(stops);
+                int obstacle = Long.numberOfTrailingZeros(blocked);
+                if (stops != 0 && stop < obstacle) {
+                    return x * this.width + (w << 6) + stop;
+                }
+                if (blocked != 0 || ++w == this.stride) {
+                    return -1;
+                }
+            } else {
+                int stop = 63 - Long.numberOfLeadingZeros(stops);
+                int obstacle = 63 - Long.numberOfLeadingZeros(blocked);
+                if (stops != 0 && stop > obstacle) {
+                    return x * this.width + (w << 6) + stop;
+                }
+                if (blocked != 0 || --w < 0) {
+                    return -1;
+                }
+            }
+            mask = -1L;
+        }
+    }
+
+    // word `w` of the walkable cells of row `x`, or 0 off the grid
+    private long row(int x, int w) {
+        if (x < 0 || x >= this.depth) {
+            return 0;
+        }
+        long bits = this.flat.word(x, w);
+        if (x == this.toX && w == this.toY >>> 6) {
+            bits |= 1L << this.toY;
+        }
+        if (x == this.fromX && w == this.fromY >>> 6) {
+            bits |= 1L << this.fromY;
+        }
+        return bits;
+    }
+
+    // run along column y from row x in direction dx, returning the first
+    // jump point: the destination, a cell with a forced turn, or a cell
+    // from which a horizontal run finds a jump point. Returns -1 if the
+    // run hits an obstacle or the edge first.
+    private int jumpVertical(int x, int y, int dx) {
+        while (true) {
+            x += dx;
+            if (!this.walkable(x, y)) {
+                return -1;
+            }
+            int i = x * this.width + y;
+            if (i == this.to
+                || (this.walkable(x, y - 1) && !this.walkable(x - dx, y - 1))
+                || (this.walkable(x, y + 1) && !this.walkable(x - dx, y + 1))
+                || this.jumpHorizontal(x, y, -1) >= 0
+                || this.jumpHorizontal(x, y, 1) >= 0) {
+                return i;
+            }
+        }
+    }
+
+    private boolean walkable(int x, int y) {
+        if (x < 0 || x >= this.depth || y < 0 || y >= this.width) {
+            return false;
+        }
+        if (this.flat.get(x, y)) {
+            return true;
+        }
+        int i = x * this.width + y;
+        return i == this.to || i == this.from;
+    }
+
+    private int manhattan(int a, int b) {
+        int ax = a / this.width;
+        int bx = b / this.width;
+        return Math.abs(ax - bx) + Math.abs((a - ax * this.width) - (b - bx * this.width));
+    }
+}
@@ -0,0 +1,60 @@
+package lumberjack;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of primitive longs.
+ *
+ * Path searches push {@code (priority << 32) | cell} so that entries come
+ * out in order of priority without boxing.
+ */
+class LongHeap {
+
+    private long[] heap = new long[16];
+    private int count;
+
+    public boolean isEmpty() {
+        return this.count == 0;
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Add `v` to the heap.
+     */
+    public void add(long v) {
+        if (this.count == this.heap.length) {
+            this.heap = Arrays.copyOf(this.heap, 2 * this.count);
+        }
+        int i = this.count++;
+        while (i > 0 && this.heap[(i - 1) >>> 1] > v) {
+            this.heap[i] = this.heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        this.heap[i] = v;
+    }
+
+    /**
+     * Remove and return the smallest element. The heap must not be empty.
+     */
+    public long poll() {
+        long top = this.heap[0];
+        long last = this.heap[--this.count];
+        int i = 0;
+        while (2 * i + 1 < this.count) {
+            int child = 2 * i + 1;
+            if (child + 1 < this.count && this.heap[child + 1] < this.heap[child]) {
+                child++;
+            }
+            if (this.heap[child] >= last) {
+                break;
+            }
+            this.heap[i] = this.heap[child];
+            i = child;
+        }
+        this.heap[i] = last;
+        return top;
+    }
+}
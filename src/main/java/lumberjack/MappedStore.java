@@ -0,0 +1,78 @@
+package lumberjack;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read only cell store over a memory mapped forest file, see ForestFile.
+ *
+ * The cells are read straight from the mapping and never copied onto the
+ * heap. Since the store cannot change, copies share it, so states built
+ * from a mapped grid cost nothing until they are modified. The first write
+ * to a grid over a mapped store moves that grid (and only that grid) to a
+ * heap store of the same width.
+ *
+ * The mapping is released once no grid refers to the store any more.
+ * Closing a mapped store does nothing, since other grids may still share it.
+ */
+class MappedStore extends DirectStore {
+
+    /**
+     * Wrap `buffer`, holding `bytesPerCell` bytes per cell in the byte order
+     * of the buffer.
+     */
+    MappedStore(ByteBuffer buffer, int bytesPerCell) {
+        super(buffer.asReadOnlyBuffer().order(buffer.order()), bytesPerCell);
+    }
+
+    @Override
+    public void set(int index, int value) {
+        throw new UnsupportedOperationException("mapped store is read only");
+    }
+
+    /**
+     * Always false, so that the first write to a grid over a mapped store
+     * moves it to the heap, see {@link #widened(int)}.
+     */
+    @Override
+    public boolean fits(int value) {
+        return false;
+    }
+
+    /**
+     * Return this store, which is never modified.
+     */
+    @Override
+    public CellStore copy() {
+        return this;
+    }
+
+    /**
+     * Return a heap copy of this store wide enough for its own cells and for
+     * `value`.
+     */
+    @Override
+    public CellStore widened(int value) {
+        int bytes = this.bytesPerCell();
+        if (value != (short) value) {
+            bytes = 4;
+        } else if (value != (byte) value) {
+            bytes = Math.max(bytes, 2);
+        }
+        CellStore res;
+        if (bytes == 1) {
+            res = new CellStore.ByteStore(this.size());
+        } else if (bytes == 2) {
+            res = new CellStore.ShortStore(this.size());
+        } else {
+            res = new CellStore.IntStore(this.size());
+        }
+        for (int i = 0; i < this.size(); i++) {
+            res.set(i, this.get(i));
+        }
+        return res;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,174 @@
+package lumberjack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Level-synchronous breadth first search that expands large frontiers on
+ * several threads.
+ *
+ * Each level's frontier is split into chunks expanded in parallel. Cells are
+ * claimed in a shared atomic visited bitset, so every cell joins the next
+ * frontier exactly once, and the level at which the destination is claimed
+ * is its distance, exactly as in a sequential search. Levels whose frontier
+ * is smaller than the threshold are expanded on the calling thread, so
+ * small grids never pay for the hand-off.
+ */
+class ParallelBfs {
+
+    /**
+     * Frontier size from which levels are expanded in parallel, set with the
+     * system property {@code lumberjack.parallelThreshold}.
+     */
+    public static final int DEFAULT_THRESHOLD =
+        Integer.getInteger("lumberjack.parallelThreshold", 4096);
+
+    private final int threshold;
+    private final ForkJoinPool pool;
+
+    public ParallelBfs() {
+        this(DEFAULT_THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a search that expands levels with at least `threshold` cells
+     * on the threads of `pool`.
+     */
+    public ParallelBfs(int threshold, ForkJoinPool pool) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive");
+        }
+        this.threshold = threshold;
+        this.pool = pool;
+    }
+
+    /**
+     * Compute the minimum number of cardinal moves from `from` to `to`
+     * across flat cells of `grid`; `to` itself need not be flat.
+     *
+     * The grid must not change during the search.
+     *
+     * @param from flat index of the starting cell
+     * @param to flat index of the destination cell
+     * @return the distance, or -1 if `to` is unreachable
+     */
+    public int distance(Grid grid, int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+        int cells = grid.getDepth() * grid.getWidth();
+        AtomicLongArray visited = new AtomicLongArray((cells + 63) >>> 6);
+        ParallelBfs.claim(visited, from);
+
+        int[] frontier = {from};
+        for (int dist = 1; frontier.length > 0; dist++) {
+            if (frontier.length < this.threshold) {
+                frontier = ParallelBfs.expand(grid, to, visited, frontier, 0, frontier.length);
+            } else {
+                frontier = this.expandParallel(grid, to, visited, frontier);
+            }
+            // the destination is claimed on the level it's first reached
+            if ((visited.get(to >>> 6) & (1L << to)) != 0) {
+                return dist;
+            }
+        }
+        return -1;
+    }
+
+    private int[] expandParallel(Grid grid, int to, AtomicLongArray visited, int[] frontier) {
+        // a few chunks per thread to even out the load
+        int chunks = 4 * this.pool.getParallelism();
+        int chunkSize = (frontier.length + chunks - 1) / chunks;
+        List<Callable<int[]>> tasks = new ArrayList<>();
+        for (int start = 0; start < frontier.length; start += chunkSize) {
+            int lo = start;
+            int hi = Math.min(frontier.length, start + chunkSize);
+            tasks.add(() -> {
+                return ParallelBfs.expand(grid, to, visited, frontier, lo, hi);
+            });
+        }
+
+        List<int[]> parts = new ArrayList<>();
+        int total = 0;
+        try {
+            for (Future<int[]> f : this.pool.invokeAll(tasks)) {
+                int[] part = f.get();
+                parts.add(part);
+                total += part.length;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted during path search", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("path search failed", e.getCause());
+        }
+
+        int[] next = new int[total];
+        int k = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, next, k, part.length);
+            k += part.length;
+        }
+        return next;
+    }
+
+    /**
+     * Claim and return the unvisited passable neighbors of
+     * {@code frontier[lo, hi)}.
+     */
+    private static int[] expand(Grid grid, int to, AtomicLongArray visited,
+                                int[] frontier, int lo, int hi) {
+        CellPredicate passable = (n, h) -> {
+            return (h == 0 || n == to) && ParallelBfs.claim(visited, n);
+        };
+        Collector next = new Collector(2 * (hi - lo));
+        for (int i = lo; i < hi; i++) {
+            grid.forEachNeighbor(frontier[i], passable, next);
+        }
+        return Arrays.copyOf(next.cells, next.count);
+    }
+
+    /**
+     * Growable buffer of cells, doubling as the neighbor callback.
+     */
+    private static final class Collector implements IntConsumer {
+        int[] cells;
+        int count;
+
+        Collector(int capacity) {
+            this.cells = new int[Math.max(4, capacity)];
+        }
+
+        @Override
+        public void accept(int n) {
+            if (this.count == this.cells.length) {
+                this.cells = Arrays.copyOf(this.cells, 2 * this.count);
+            }
+            this.cells[this.count++] = n;
+        }
+    }
+
+    /**
+     * Atomically set bit `i`; return true if this call set it.
+     */
+    private static boolean claim(AtomicLongArray bits, int i) {
+        int w = i >>> 6;
+        long mask = 1L << i;
+        while (true) {
+            long old = bits.get(w);
+            if ((old & mask) != 0) {
+                return false;
+            }
+            if (bits.compareAndSet(w, old, old | mask)) {
+                return true;
+            }
+        }
+    }
+}
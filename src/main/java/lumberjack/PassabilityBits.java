@@ -0,0 +1,197 @@
+package lumberjack;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bitset of the flat ground (height 0) cells of a grid, one row of 64-bit
+ * words per grid row.
+ *
+ * Supports a bit-parallel breadth first search: each step expands the whole
+ * frontier at once with shifts, ANDs and ORs on words, so a step costs one
+ * word operation per 64 cells instead of one neighbor test per cell.
+ */
+class PassabilityBits {
+
+    // number of bitsets built by scanning a grid, see builds()
+    private static final AtomicLong BUILDS = new AtomicLong();
+
+    private final int depth;
+    private final int width;
+    // number of words per row
+    private final int stride;
+    // bit (x, y) is bit y % 64 of bits[x * stride + y / 64]
+    private final long[] bits;
+
+    /**
+     * Build the bitset of flat cells of `grid`.
+     */
+    public PassabilityBits(Grid grid) {
+        this.depth = grid.getDepth();
+        this.width = grid.getWidth();
+        this.stride = (this.width + 63) >>> 6;
+        this.bits = new long[this.depth * this.stride];
+        grid.forEachIndexOf(0, i -> {
+            this.set(i, true);
+        });
+        BUILDS.incrementAndGet();
+    }
+
+    /**
+     * Return the number of bitsets built from a grid so far, rather than
+     * copied. Tests use it to check that chops patch bitsets in place.
+     */
+    static long builds() {
+        return BUILDS.get();
+    }
+
+    /**
+     * Copy constructor.
+     */
+    public PassabilityBits(PassabilityBits copy) {
+        this.depth = copy.depth;
+        this.width = copy.width;
+        this.stride = copy.stride;
+        this.bits = copy.bits.clone();
+    }
+
+    /**
+     * Mark the cell at flat index `index` as passable or not.
+     */
+    public void set(int index, boolean passable) {
+        int x = index / this.width;
+        int y = index - x * this.width;
+        int w = x * this.stride + (y >>> 6);
+        if (passable) {
+            this.bits[w] |= 1L << y;
+        } else {
+            this.bits[w] &= ~(1L << y);
+        }
+    }
+
+    /**
+     * Return true if `other` marks exactly the same cells of a grid of the
+     * same size as passable.
+     */
+    public boolean sameAs(PassabilityBits other) {
+        return this.depth == other.depth && this.width == other.width
+            && Arrays.equals(this.bits, other.bits);
+    }
+
+    /**
+     * Return the approximate memory footprint in bytes.
+     */
+    public long bytes() {
+        return 8L * this.bits.length + 32;
+    }
+
+    public boolean get(int index) {
+        int x = index / this.width;
+        int y = index - x * this.width;
+        return (this.bits[x * this.stride + (y >>> 6)] & (1L << y)) != 0;
+    }
+
+    /**
+     * Return true if grid position (x, y), which must be on the grid, is
+     * passable.
+     */
+    public boolean get(int x, int y) {
+        return (this.bits[x * this.stride + (y >>> 6)] & (1L << y)) != 0;
+    }
+
+    /**
+     * Return word `w` of row `x`: bit b is cell (x, 64 * w + b). Bits past
+     * the end of the row are 0.
+     */
+    public long word(int x, int w) {
+        return this.bits[x * this.stride + w];
+    }
+
+    /**
+     * Compute the minimum number of cardinal moves from `from` to `to`
+     * across passable cells; `to` itself need not be passable.
+     *
+     * @param from flat index of the starting cell
+     * @param to flat index of the destination cell
+     * @return the distance, or -1 if `to` is unreachable
+     */
+    public int distance(int from, int to) {
+        if (from == to) {
+            return 0;
+        }
+        int toX = to / this.width;
+        int toY = to - toX * this.width;
+        int toWord = toX * this.stride + (toY >>> 6);
+        long toBit = 1L << toY;
+
+        // allowed cells: passable ones plus the destination
+        long[] allowed = this.bits.clone();
+        allowed[toWord] |= toBit;
+
+        long[] frontier = new long[this.bits.length];
+        long[] next = new long[this.bits.length];
+        long[] visited = new long[this.bits.length];
+        int fromX = from / this.width;
+        int fromY = from - fromX * this.width;
+        frontier[fromX * this.stride + (fromY >>> 6)] = 1L << fromY;
+        visited[fromX * this.stride + (fromY >>> 6)] = 1L << fromY;
+
+        // rows [lo, hi] hold the whole frontier
+        int lo = fromX;
+        int hi = fromX;
+        for (int dist = 1; ; dist++) {
+            int nextLo = Integer.MAX_VALUE;
+            int nextHi = -1;
+            for (int x = Math.max(0, lo - 1); x <= Math.min(this.depth - 1, hi + 1); x++) {
+                boolean any = false;
+                for (int w = 0; w < this.stride; w++) {
+                    int i = x * this.stride + w;
+                    long f = frontier[i];
+                    // left and right neighbors, carrying across word edges
+                    long grown = (f << 1) | (f >>> 1);
+                    if (w > 0) {
+                        grown |= frontier[i - 1] >>> 63;
+                    }
+                    if (w < this.stride - 1) {
+                        grown |= frontier[i + 1] << 63;
+                    }
+                    // up and down neighbors
+                    if (x > 0) {
+                        grown |= frontier[i - this.stride];
+                    }
+                    if (x < this.depth - 1) {
+                        grown |= frontier[i + this.stride];
+                    }
+                    long n = grown & allowed[i] & ~visited[i];
+                    next[i] = n;
+                    any |= n != 0;
+                }
+                if (any) {
+                    nextLo = Math.min(nextLo, x);
+                    nextHi = x;
+                }
+            }
+            if ((next[toWord] & toBit) != 0) {
+                return dist;
+            }
+            if (nextHi < 0) {
+                return -1;
+            }
+
+            for (int x = Math.max(0, lo - 1); x <= Math.min(this.depth - 1, hi + 1); x++) {
+                for (int w = 0; w < this.stride; w++) {
+                    int i = x * this.stride + w;
+                    visited[i] |= next[i];
+                }
+            }
+            // the frontier buffer is reused for the step after next, so clear
+            // the only rows it has bits in
+            Arrays.fill(frontier, lo * this.stride, (hi + 1) * this.stride, 0L);
+            long[] tmp = frontier;
+            frontier = next;
+            next = tmp;
+            lo = nextLo;
+            hi = nextHi;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package lumberjack;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 
 class Path implements Iterable<StateJump> {
@@ -21,6 +25,25 @@ class Path implements Iterable<StateJump> {
      */
     private int distance;
 
+    /**
+     * Orders paths by the positions of their chops: (x, y) of the first chop,
+     * then of the second and so on, shorter paths first on a common prefix.
+     */
+    public static final Comparator<Path> BY_CHOPS = (a, b) -> {
+        int n = Math.min(a.steps.size(), b.steps.size());
+        for (int i = 0; i < n; i++) {
+            int c = Long.compare(a.steps.get(i).state.getPos().pack(),
+                                 b.steps.get(i).state.getPos().pack());
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.steps.size(), b.steps.size());
+    };
+
+    // characters buffered by render before they are written out
+    private static final int RENDER_BUFFER = 1 << 12;
+
     /**
      * Construct a new path from a single initial state.
      */
@@ -77,20 +100,113 @@ class Path implements Iterable<StateJump> {
         }
     }
 
+    /**
+     * Return the cell by cell walking route along the path: the initial
+     * position, then every cell stepped on, ending on the last tree
+     * chopped. It holds getDistance() + 1 cells.
+     *
+     * Legs found by a search that records routes (see
+     * {@link State#setRecordRoutes(boolean)}) are decoded from their moves
+     * as the iterator gets to them. Other legs are rebuilt with a breadth
+     * first search over the state before the chop.
+     */
+    public Iterable<Coord> route() {
+        return () -> {
+            return new RouteIterator();
+        };
+    }
+
+    /**
+     * Streams the route, replaying one leg at a time.
+     */
+    private final class RouteIterator implements Iterator<Coord> {
+        // index of the step the current leg leads to
+        private int step = 0;
+        private Iterator<Coord> leg = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+            while (!this.leg.hasNext() && this.step < Path.this.steps.size()) {
+                this.leg = this.replay(this.step++);
+            }
+            return this.leg.hasNext();
+        }
+
+        @Override
+        public Coord next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.leg.next();
+        }
+
+        // the cells of the leg leading to step `k`, less the first one,
+        // which ends the previous leg
+        private Iterator<Coord> replay(int k) {
+            StateJump jump = Path.this.steps.get(k);
+            State to = jump.state;
+            if (k == 0) {
+                return Collections.singletonList(to.getPos()).iterator();
+            }
+            if (jump.hasMoves()) {
+                return jump.cells(Path.this.steps.get(k - 1).state.getPos());
+            }
+            List<Coord> cells = Path.this.steps.get(k - 1).state.route(to.getPos());
+            if (cells.isEmpty()) {
+                throw new IllegalStateException("no route to " + to.getPos());
+            }
+            return cells.subList(1, cells.size()).iterator();
+        }
+    }
+
+    /**
+     * Return a copy of the path with the symmetry `s` applied to every
+     * state. Distances are unchanged.
+     */
+    public Path transform(Symmetry s) {
+        List<StateJump> res = new ArrayList<>();
+        for (StateJump sj : this.steps) {
+            res.add(sj.transform(s));
+        }
+        return new Path(res);
+    }
+
     @Override
     public String toString() {
-        String res = "";
+        StringBuilder res = new StringBuilder();
+        try {
+            this.render(res);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw
+            throw new AssertionError(e);
+        }
+        return res.toString();
+    }
+
+    /**
+     * Write the chop positions of the path to `out`, separated by " -> ",
+     * in the format of {@link #toString()}.
+     *
+     * Positions are written through a buffer that is flushed to `out` every
+     * few kilobytes, so long paths stream without building a string per
+     * position.
+     */
+    public void render(Appendable out) throws IOException {
+        StringBuilder buf = new StringBuilder(RENDER_BUFFER + 32);
         boolean first = true;
         for (StateJump sj : this.steps) {
             Coord pos = sj.state.getPos();
-            if (first) {
-                res += pos;
-                first = false;
-            } else {
-                res += " -> " + pos;
+            if (!first) {
+                buf.append(" -> ");
+            }
+            first = false;
+            buf.append('(').append(pos.getX()).append(", ").append(pos.getY()).append(')');
+            if (buf.length() >= RENDER_BUFFER) {
+                out.append(buf);
+                buf.setLength(0);
             }
         }
-        return res;
+        out.append(buf);
     }
 
 }
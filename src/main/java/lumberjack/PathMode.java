@@ -0,0 +1,96 @@
+package lumberjack;
+
+import java.util.Optional;
+
+/**
+ * Path finding algorithms available to State.findPath.
+ *
+ * Every mode computes the same distances: the minimum number of cardinal
+ * moves from a starting cell to a destination cell, moving across flat
+ * ground (height 0) only, except that the destination itself may be a tree.
+ */
+enum PathMode {
+
+    /**
+     * Breadth first search one cell at a time, see
+     * {@link Grid#minDistance(Coord, Coord, CellPredicate)}.
+     */
+    BFS {
+        @Override
+        public int distance(Grid grid, int from, int to) {
+            CellPredicate passable = (n, h) -> {
+                return h == 0 || n == to;
+            };
+            Optional<Integer> d = grid.minDistance(grid.coord(from), grid.coord(to), passable);
+            return d.isPresent() ? d.get() : -1;
+        }
+    },
+
+    /**
+     * Bit-parallel breadth first search over the grid's passability bitset,
+     * see {@link PassabilityBits#distance(int, int)}. Best on large open
+     * forests.
+     */
+    BITSET {
+        @Override
+        public int distance(Grid grid, int from, int to) {
+            return grid.passability().distance(from, to);
+        }
+    },
+
+    /**
+     * Exact hierarchical path finding over clusters of the grid, see
+     * {@link HpaGraph}. Best for very large forests queried many times.
+     */
+    HPA {
+        @Override
+        public int distance(Grid grid, int from, int to) {
+            return grid.hierarchy().distance(grid, from, to);
+        }
+    },
+
+    /**
+     * Breadth first search over the grid's precomputed adjacency of
+     * walkable cells, see {@link CsrGraph}. Trenches aren't part of that
+     * graph, so queries starting or ending on one fall back to BFS.
+     */
+    CSR {
+        @Override
+        public int distance(Grid grid, int from, int to) {
+            int d = grid.adjacency().distance(from, to);
+            return d == -2 ? BFS.distance(grid, from, to) : d;
+        }
+    },
+
+    /**
+     * Level-synchronous breadth first search that expands large levels on
+     * the common fork/join pool, see {@link ParallelBfs}. Best for one-off
+     * queries on huge forests.
+     */
+    PARALLEL {
+        private final ParallelBfs search = new ParallelBfs();
+
+        @Override
+        public int distance(Grid grid, int from, int to) {
+            return this.search.distance(grid, from, to);
+        }
+    },
+
+    /**
+     * A* over jump points with cardinal moves only, see
+     * {@link JumpPointSearch}. Best on forests with large open areas and
+     * few obstacles.
+     */
+    JPS {
+        @Override
+        public int distance(Grid grid, int from, int to) {
+            return new JumpPointSearch(grid, from, to).distance();
+        }
+    };
+
+    /**
+     * Return the distance from flat index `from` to flat index `to` on
+     * `grid`, or -1 if there is no path.
+     */
+    public abstract int distance(Grid grid, int from, int to);
+}
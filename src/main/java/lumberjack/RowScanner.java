@@ -0,0 +1,242 @@
+package lumberjack;
+
+import java.util.Arrays;
+
+/**
+ * Linear scan kernels over slices of int, short and byte data, used by
+ * Grid for its whole grid reductions. Each kernel comes in one overload per
+ * element type, so that scans read the array of a narrow cell store
+ * directly instead of widening its rows into a buffer first.
+ *
+ * Two backends compute bit for bit identical results:
+ * <ul>
+ * <li>SCALAR is the obvious loop with data dependent branches.
+ * <li>BRANCHLESS rewrites each comparison as integer arithmetic and keeps
+ *     several independent accumulators, so the loop body has no branches
+ *     and is a candidate for the JIT's superword auto-vectorization.
+ * </ul>
+ *
+ * The backend used by default is chosen with the system property
+ * {@code lumberjack.scanner} ("scalar" or "branchless", the default).
+ */
+enum RowScanner {
+
+    SCALAR {
+        @Override
+        public int minPositive(int[] a, int from, int len) {
+            int min = Integer.MAX_VALUE;
+            for (int i = from; i < from + len; i++) {
+                if (a[i] > 0 && a[i] < min) {
+                    min = a[i];
+                }
+            }
+            return min;
+        }
+
+        @Override
+        public int minPositive(short[] a, int from, int len) {
+            int min = Integer.MAX_VALUE;
+            for (int i = from; i < from + len; i++) {
+                if (a[i] > 0 && a[i] < min) {
+                    min = a[i];
+                }
+            }
+            return min;
+        }
+
+        @Override
+        public int minPositive(byte[] a, int from, int len) {
+            int min = Integer.MAX_VALUE;
+            for (int i = from; i < from + len; i++) {
+                if (a[i] > 0 && a[i] < min) {
+                    min = a[i];
+                }
+            }
+            return min;
+        }
+
+        @Override
+        public void equalsMask(int[] a, int from, int len, int v, long[] mask) {
+            Arrays.fill(mask, 0, (len + 63) >>> 6, 0L);
+            for (int i = 0; i < len; i++) {
+                if (a[from + i] == v) {
+                    mask[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+
+        @Override
+        public void equalsMask(short[] a, int from, int len, int v, long[] mask) {
+            Arrays.fill(mask, 0, (len + 63) >>> 6, 0L);
+            for (int i = 0; i < len; i++) {
+                if (a[from + i] == v) {
+                    mask[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+
+        @Override
+        public void equalsMask(byte[] a, int from, int len, int v, long[] mask) {
+            Arrays.fill(mask, 0, (len + 63) >>> 6, 0L);
+            for (int i = 0; i < len; i++) {
+                if (a[from + i] == v) {
+                    mask[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+    },
+
+    BRANCHLESS {
+        // Positive values are exactly those whose key (v - 1) ^ MIN_VALUE is
+        // at most KEY_LIMIT; the map is monotone on them, so the minimum key
+        // belongs to the minimum positive value.
+        private static final int KEY_LIMIT = (Integer.MAX_VALUE - 1) ^ Integer.MIN_VALUE;
+
+        @Override
+        public int minPositive(int[] a, int from, int len) {
+            int m0 = Integer.MAX_VALUE;
+            int m1 = Integer.MAX_VALUE;
+            int m2 = Integer.MAX_VALUE;
+            int m3 = Integer.MAX_VALUE;
+            int end = from + len;
+            int i = from;
+            for (; i + 3 < end; i += 4) {
+                m0 = Math.min(m0, (a[i] - 1) ^ Integer.MIN_VALUE);
+                m1 = Math.min(m1, (a[i + 1] - 1) ^ Integer.MIN_VALUE);
+                m2 = Math.min(m2, (a[i + 2] - 1) ^ Integer.MIN_VALUE);
+                m3 = Math.min(m3, (a[i + 3] - 1) ^ Integer.MIN_VALUE);
+            }
+            for (; i < end; i++) {
+                m0 = Math.min(m0, (a[i] - 1) ^ Integer.MIN_VALUE);
+            }
+            return this.fromKey(Math.min(Math.min(m0, m1), Math.min(m2, m3)));
+        }
+
+        @Override
+        public int minPositive(short[] a, int from, int len) {
+            int m0 = Integer.MAX_VALUE;
+            int m1 = Integer.MAX_VALUE;
+            int m2 = Integer.MAX_VALUE;
+            int m3 = Integer.MAX_VALUE;
+            int end = from + len;
+            int i = from;
+            for (; i + 3 < end; i += 4) {
+                m0 = Math.min(m0, (a[i] - 1) ^ Integer.MIN_VALUE);
+                m1 = Math.min(m1, (a[i + 1] - 1) ^ Integer.MIN_VALUE);
+                m2 = Math.min(m2, (a[i + 2] - 1) ^ Integer.MIN_VALUE);
+                m3 = Math.min(m3, (a[i + 3] - 1) ^ Integer.MIN_VALUE);
+            }
+            for (; i < end; i++) {
+                m0 = Math.min(m0, (a[i] - 1) ^ Integer.MIN_VALUE);
+            }
+            return this.fromKey(Math.min(Math.min(m0, m1), Math.min(m2, m3)));
+        }
+
+        @Override
+        public int minPositive(byte[] a, int from, int len) {
+            int m0 = Integer.MAX_VALUE;
+            int m1 = Integer.MAX_VALUE;
+            int m2 = Integer.MAX_VALUE;
+            int m3 = Integer.MAX_VALUE;
+            int end = from + len;
+            int i = from;
+            for (; i + 3 < end; i += 4) {
+                m0 = Math.min(m0, (a[i] - 1) ^ Integer.MIN_VALUE);
+                m1 = Math.min(m1, (a[i + 1] - 1) ^ Integer.MIN_VALUE);
+                m2 = Math.min(m2, (a[i + 2] - 1) ^ Integer.MIN_VALUE);
+                m3 = Math.min(m3, (a[i + 3] - 1) ^ Integer.MIN_VALUE);
+            }
+            for (; i < end; i++) {
+                m0 = Math.min(m0, (a[i] - 1) ^ Integer.MIN_VALUE);
+            }
+            return this.fromKey(Math.min(Math.min(m0, m1), Math.min(m2, m3)));
+        }
+
+        // the value of the minimum key, or MAX_VALUE if it isn't positive
+        private int fromKey(int key) {
+            return key <= KEY_LIMIT ? (key ^ Integer.MIN_VALUE) + 1 : Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void equalsMask(int[] a, int from, int len, int v, long[] mask) {
+            for (int w = 0; w < len; w += 64) {
+                int n = Math.min(64, len - w);
+                int base = from + w;
+                long word = 0L;
+                for (int j = 0; j < n; j++) {
+                    int x = a[base + j] ^ v;
+                    // 1 iff x == 0: x | -x has its sign bit set iff x != 0
+                    word |= (long) (((x | -x) >>> 31) ^ 1) << j;
+                }
+                mask[w >>> 6] = word;
+            }
+        }
+
+        @Override
+        public void equalsMask(short[] a, int from, int len, int v, long[] mask) {
+            for (int w = 0; w < len; w += 64) {
+                int n = Math.min(64, len - w);
+                int base = from + w;
+                long word = 0L;
+                for (int j = 0; j < n; j++) {
+                    int x = a[base + j] ^ v;
+                    word |= (long) (((x | -x) >>> 31) ^ 1) << j;
+                }
+                mask[w >>> 6] = word;
+            }
+        }
+
+        @Override
+        public void equalsMask(byte[] a, int from, int len, int v, long[] mask) {
+            for (int w = 0; w < len; w += 64) {
+                int n = Math.min(64, len - w);
+                int base = from + w;
+                long word = 0L;
+                for (int j = 0; j < n; j++) {
+                    int x = a[base + j] ^ v;
+                    word |= (long) (((x | -x) >>> 31) ^ 1) << j;
+                }
+                mask[w >>> 6] = word;
+            }
+        }
+    };
+
+    /**
+     * Backend selected by the {@code lumberjack.scanner} system property.
+     */
+    public static final RowScanner DEFAULT = RowScanner.fromProperty(
+            System.getProperty("lumberjack.scanner", "branchless"));
+
+    /**
+     * Return the minimum positive value among {@code a[from, from + len)},
+     * or Integer.MAX_VALUE if there are no positive values.
+     */
+    public abstract int minPositive(int[] a, int from, int len);
+
+    public abstract int minPositive(short[] a, int from, int len);
+
+    public abstract int minPositive(byte[] a, int from, int len);
+
+    /**
+     * Compute the equality mask of {@code a[from, from + len)} against `v`:
+     * bit {@code i % 64} of {@code mask[i / 64]} is set iff
+     * {@code a[from + i] == v}.
+     *
+     * The first {@code ceil(len / 64)} words of `mask` are overwritten;
+     * bits beyond `len` in the last word are cleared.
+     */
+    public abstract void equalsMask(int[] a, int from, int len, int v, long[] mask);
+
+    public abstract void equalsMask(short[] a, int from, int len, int v, long[] mask);
+
+    public abstract void equalsMask(byte[] a, int from, int len, int v, long[] mask);
+
+    private static RowScanner fromProperty(String name) {
+        for (RowScanner s : RowScanner.values()) {
+            if (s.name().equalsIgnoreCase(name)) {
+                return s;
+            }
+        }
+        return BRANCHLESS;
+    }
+}
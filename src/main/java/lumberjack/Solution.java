@@ -0,0 +1,253 @@
+package lumberjack;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A solution that can be updated cheaply after small edits to the forest.
+ *
+ * Trees are chopped in height order, so the solver works through the
+ * forest one height level at a time. While the trees of height h are being
+ * chopped, every cell that is a trench or a tree of height at least h is
+ * simply a wall. An edit that keeps a cell within the walls, before and
+ * after, for all levels below some height H (a new trench on a tall tree,
+ * a tall tree regrown in a trench, a tall tree changing height) cannot
+ * affect how those levels are solved.
+ *
+ * So the frontier of the search is kept at the start of every level, and
+ * {@link #resolve(Map)} resumes the search from the first level the edits
+ * can affect, with the edits applied to the saved frontier. Edits to trees
+ * of height h affect every level from h on, and so does an edit that turns
+ * a trench into flat ground (flat ground is walked at every level).
+ *
+ * Flat ground that becomes a wall (a new trench, or a regrown tree for the
+ * levels below its height) can only make routes longer. A saved frontier
+ * whose paths all walk around the cell keeps its distances, and no other
+ * path got shorter, so it is still the frontier of the edited forest. The
+ * search resumes from the last level before the first frontier with a
+ * route (see {@link Path#route()}) across the cell. The searches record
+ * the moves of every jump (see {@link State#setRecordRoutes(boolean)}), so
+ * the routes are decoded rather than searched for again.
+ */
+class Solution {
+
+    // the forest this is a solution of
+    private final State initial;
+
+    // heights of the trees of the forest, ascending
+    private final int[] heights;
+
+    // frontier at the start of each height level, by height; solved forests
+    // also keep the final frontier, under Integer.MAX_VALUE
+    private final TreeMap<Integer, Level> levels;
+
+    private final Optional<Path> path;
+
+    // trees chopped by the frontier the search was resumed from
+    private final int reusedSteps;
+
+    // where the searches print progress; null for nowhere
+    private final PrintStream log;
+
+    /**
+     * The frontier at the start of a level, plus the edits made to the
+     * forest since it was recorded, which can't affect the level.
+     */
+    private static final class Level {
+        final Set<Path> frontier;
+        final Map<Coord, Integer> edits;
+
+        Level(Set<Path> frontier, Map<Coord, Integer> edits) {
+            this.frontier = frontier;
+            this.edits = edits;
+        }
+    }
+
+    private Solution(State initial, int[] heights, TreeMap<Integer, Level> levels,
+                     Optional<Path> path, int reusedSteps, PrintStream log) {
+        this.initial = initial;
+        this.heights = heights;
+        this.levels = levels;
+        this.path = path;
+        this.reusedSteps = reusedSteps;
+        this.log = log;
+    }
+
+    /**
+     * Solve the forest of `initial` from scratch, see
+     * {@link Solver#detailedSolve()}.
+     */
+    public static Solution solve(State initial) {
+        return Solution.solve(initial, System.out);
+    }
+
+    /**
+     * Same as {@link #solve(State)}, printing the progress of this search
+     * and of later resolves to `log`, or nowhere if `log` is null.
+     */
+    public static Solution solve(State initial, PrintStream log) {
+        State start = new State(initial).setRecordRoutes(true);
+        int[] heights = start.treeHeights();
+        TreeMap<Integer, Level> levels = new TreeMap<>();
+        if (start.firstUnreachableTree().isPresent()) {
+            return new Solution(start, heights, levels, Optional.empty(), 0, log);
+        }
+        Set<Path> frontier = new HashSet<>();
+        frontier.add(new Path(new StateJump(start, 0)));
+        Optional<Path> path = Solution.search(frontier, heights, levels, log);
+        return new Solution(start, heights, levels, path, 0, log);
+    }
+
+    /**
+     * Return the solution for the forest with the cells in `edits` set to
+     * the given heights, reusing the levels the edits can't affect.
+     *
+     * @throws java.util.NoSuchElementException if an edit is not on the grid
+     * @throws IllegalArgumentException if an edit has height below -1
+     */
+    public Solution resolve(Map<Coord, Integer> edits) {
+        State start = new State(this.initial);
+        int[] heights = this.heights;
+        int from = Integer.MAX_VALUE;
+        // flat cells that become walls
+        Set<Coord> walls = new HashSet<>();
+        for (Map.Entry<Coord, Integer> e : edits.entrySet()) {
+            int old = start.getHeight(e.getKey());
+            int h = e.getValue();
+            start.setHeight(e.getKey(), h);
+            if (old == h) {
+                continue;
+            }
+            if (old == 0) {
+                walls.add(e.getKey());
+                from = Math.min(from, Solution.firstAffected(h));
+            } else {
+                from = Math.min(from, Math.min(Solution.firstAffected(old),
+                                               Solution.firstAffected(h)));
+            }
+            heights = Solution.replaceHeight(heights, old, h);
+        }
+        if (!walls.isEmpty()) {
+            from = Math.min(from, this.lastUncrossed(walls));
+        }
+
+        // reuse the levels below `from`, and resume at the first level
+        // at or above it
+        Map.Entry<Integer, Level> resume = this.levels.ceilingEntry(from);
+        if (resume == null) {
+            // no levels were recorded, the forest was found unsolvable
+            return Solution.solve(start, this.log);
+        }
+        TreeMap<Integer, Level> levels = new TreeMap<>();
+        for (Map.Entry<Integer, Level> e : this.levels.headMap(resume.getKey()).entrySet()) {
+            Map<Coord, Integer> merged = new HashMap<>(e.getValue().edits);
+            merged.putAll(edits);
+            levels.put(e.getKey(), new Level(e.getValue().frontier, merged));
+        }
+
+        Map<Coord, Integer> patch = new HashMap<>(resume.getValue().edits);
+        patch.putAll(edits);
+        Set<Path> frontier = new HashSet<>();
+        int reused = 0;
+        for (Path p : resume.getValue().frontier) {
+            Path np = new Path(p);
+            for (StateJump sj : np) {
+                for (Map.Entry<Coord, Integer> e : patch.entrySet()) {
+                    sj.state.setHeight(e.getKey(), e.getValue());
+                }
+            }
+            frontier.add(np);
+            reused = np.numSteps() - 1;
+        }
+        Optional<Path> path = Solution.search(frontier, heights, levels, this.log);
+        return new Solution(start, heights, levels, path, reused, this.log);
+    }
+
+    // the height of the last level before the first one whose frontier has
+    // a route across one of `walls`, or the first level if that is the one;
+    // Integer.MAX_VALUE if no route crosses them
+    private int lastUncrossed(Set<Coord> walls) {
+        Integer last = null;
+        for (Map.Entry<Integer, Level> e : this.levels.entrySet()) {
+            for (Path p : e.getValue().frontier) {
+                for (Coord c : p.route()) {
+                    if (walls.contains(c)) {
+                        return last != null ? last : e.getKey();
+                    }
+                }
+            }
+            last = e.getKey();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    public Optional<Path> getPath() {
+        return this.path;
+    }
+
+    /**
+     * Return the minimal distance required to cut down the forest, or -1 if
+     * there is no solution.
+     */
+    public int getDistance() {
+        return this.path.isPresent() ? this.path.get().getDistance() : -1;
+    }
+
+    /**
+     * Return the number of trees whose chopping was reused from the
+     * previous solution, 0 after a full solve.
+     */
+    public int getReusedSteps() {
+        return this.reusedSteps;
+    }
+
+    // run the search and record the frontier at the start of every level
+    private static Optional<Path> search(Set<Path> frontier, int[] heights,
+                                         TreeMap<Integer, Level> levels, PrintStream log) {
+        return Solver.search(frontier, (paths, step) -> {
+            int height = step < heights.length ? heights[step] : Integer.MAX_VALUE;
+            boolean starts = step == 0 || step == heights.length
+                || heights[step - 1] != height;
+            if (starts) {
+                levels.put(height, new Level(paths, new HashMap<>()));
+            }
+        }, log);
+    }
+
+    // the lowest height level that a cell of height h can affect: trenches
+    // affect none, flat ground all of them, and trees their own level and
+    // up
+    private static int firstAffected(int h) {
+        return h < 0 ? Integer.MAX_VALUE : h;
+    }
+
+    // `sorted` with a tree of height `old` replaced by one of height `h`
+    private static int[] replaceHeight(int[] sorted, int old, int h) {
+        int[] res = sorted;
+        if (old > 0) {
+            int i = Arrays.binarySearch(res, old);
+            int[] shorter = new int[res.length - 1];
+            System.arraycopy(res, 0, shorter, 0, i);
+            System.arraycopy(res, i + 1, shorter, i, res.length - i - 1);
+            res = shorter;
+        }
+        if (h > 0) {
+            int i = Arrays.binarySearch(res, h);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            int[] taller = new int[res.length + 1];
+            System.arraycopy(res, 0, taller, 0, i);
+            taller[i] = h;
+            System.arraycopy(res, i, taller, i + 1, res.length - i);
+            res = taller;
+        }
+        return res;
+    }
+}
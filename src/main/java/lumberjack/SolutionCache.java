@@ -0,0 +1,125 @@
+package lumberjack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bounded cache of solutions, keyed by forest up to symmetry.
+ *
+ * States are normalized to their canonical form (see
+ * {@link State#canonicalSymmetry()}) before lookup, so rotated and mirrored
+ * copies of a forest, with the start position moved to match, share one
+ * entry. Solutions are stored in canonical orientation and transformed back
+ * into the caller's orientation on the way out. Forests without a solution
+ * are cached too.
+ *
+ * Entries are evicted least recently used first once the cache holds
+ * `capacity` of them. The cache is safe to share between threads; solving
+ * happens outside the lock, so two threads missing on the same forest at
+ * once may both solve it.
+ */
+class SolutionCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<State, Optional<Path>> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public SolutionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty cache holding at most `capacity` solutions.
+     */
+    public SolutionCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.entries = new LinkedHashMap<State, Optional<Path>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<State, Optional<Path>> eldest) {
+                if (this.size() > capacity) {
+                    SolutionCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return the minimal distance required to cut down the forest of
+     * `state`, or -1 if there is no solution, see {@link Solver#solve()}.
+     */
+    public int solve(State state) {
+        Optional<Path> path = this.detailedSolve(state);
+        return path.isPresent() ? path.get().getDistance() : -1;
+    }
+
+    /**
+     * Return a minimal path through the forest of `state`, see
+     * {@link Solver#detailedSolve()}. The path starts at `state`.
+     */
+    public Optional<Path> detailedSolve(State state) {
+        Symmetry s = state.canonicalSymmetry();
+        State key = state.transform(s);
+        Optional<Path> path;
+        synchronized (this) {
+            path = this.entries.get(key);
+            if (path != null) {
+                this.hits++;
+            } else {
+                this.misses++;
+            }
+        }
+        if (path == null) {
+            path = new Solver(key).detailedSolve();
+            synchronized (this) {
+                this.entries.put(key, path);
+            }
+        }
+        Symmetry back = s.inverse();
+        return path.map(p -> {
+            return p.transform(back);
+        });
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long hits() {
+        return this.hits;
+    }
+
+    public synchronized long misses() {
+        return this.misses;
+    }
+
+    public synchronized long evictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Return the fraction of lookups that were hits, or 0 before the first
+     * lookup.
+     */
+    public synchronized double hitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0.0 : (double) this.hits / lookups;
+    }
+
+    /**
+     * Remove all entries. The counters are kept.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+}
@@ -1,5 +1,9 @@
 package lumberjack;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -7,6 +11,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
 
 class Solver {
@@ -16,10 +21,59 @@ class Solver {
      */
     private final State initial;
 
+    // where and how often to write checkpoints; null for never
+    private File checkpointFile;
+    private long checkpointMillis;
+    private long lastCheckpoint;
+
+    // search to resume instead of starting from the initial state
+    private Checkpoint resumeFrom;
+
+    // where progress and warnings are printed; null for nowhere
+    private PrintStream log = System.out;
+
     public Solver(State initial) {
         this.initial = initial;
     }
 
+    /**
+     * Create a solver that picks up the search saved in `checkpoint`, see
+     * {@link #setCheckpoint(File, long)}. The resumed search returns the
+     * same solution as an uninterrupted one.
+     *
+     * @throws ForestFormatException if the file is not a valid checkpoint
+     */
+    public static Solver resume(File checkpoint) throws IOException {
+        Checkpoint c = Checkpoint.read(checkpoint);
+        Solver res = new Solver(c.getInitial());
+        res.resumeFrom = c;
+        return res;
+    }
+
+    /**
+     * Write a checkpoint of the search to `file` between BFS steps, at most
+     * once every `intervalMillis` milliseconds (0 for every step). Each
+     * checkpoint replaces the previous one.
+     *
+     * Fluent style.
+     */
+    public Solver setCheckpoint(File file, long intervalMillis) {
+        this.checkpointFile = file;
+        this.checkpointMillis = intervalMillis;
+        return this;
+    }
+
+    /**
+     * Print progress and warnings to `log` instead of standard output, or
+     * nowhere if `log` is null.
+     *
+     * Fluent style.
+     */
+    public Solver setLog(PrintStream log) {
+        this.log = log;
+        return this;
+    }
+
     /**
      * Return the minimal distance required to travel to cut down the whole
      * initial forest.
@@ -38,17 +92,67 @@ class Solver {
     /**
      * Return a minimal path through the forest that cuts down all trees in
      * order from shortest to tallest.
+     *
+     * Forests that are provably impossible to level (see
+     * {@link State#firstUnreachableTree()}) are rejected before searching.
      */
     public Optional<Path> detailedSolve() {
-        // cache states we've visited so far along with minimum distances to
-        // them
-        Map<State, Integer> knownStates = new HashMap<>();
-        knownStates.put(this.initial, 0);
+        if (this.resumeFrom != null) {
+            return Solver.search(this.resumeFrom.getFrontier(), this::checkpoint, this.log);
+        }
+
+        Optional<Coord> unreachable = this.initial.firstUnreachableTree();
+        if (unreachable.isPresent()) {
+            Solver.log(this.log, "Solver: [WARN] tree at %s can never be reached",
+                       unreachable.get());
+            return Optional.empty();
+        }
 
-        // paths contains the current path frontier
         Set<Path> paths = new HashSet<>();
-        Path initialPath = new Path(new StateJump(this.initial, 0));
-        paths.add(initialPath);
+        paths.add(new Path(new StateJump(this.initial, 0)));
+        return Solver.search(paths, this::checkpoint, this.log);
+    }
+
+    // write a checkpoint of `frontier` if one is due
+    private void checkpoint(Set<Path> frontier, int step) {
+        if (this.checkpointFile == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (step > 0 && now - this.lastCheckpoint < this.checkpointMillis) {
+            return;
+        }
+        try {
+            Checkpoint.write(this.checkpointFile, this.initial, frontier);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.lastCheckpoint = now;
+    }
+
+    /**
+     * Run the pruned BFS from a frontier of paths that have all chopped the
+     * same number of trees, and return a minimal path that cuts down all
+     * trees.
+     *
+     * Each BFS step chops one more tree. Before a step is taken,
+     * `onStep` is given the frontier and the number of trees chopped by
+     * the initial frontier plus the steps taken so far. The last call gets
+     * the paths that can't be extended. The frontier sets are not modified
+     * afterwards. Progress is printed to `log`, unless it is null.
+     */
+    static Optional<Path> search(Set<Path> paths, ObjIntConsumer<Set<Path>> onStep,
+                                 PrintStream log) {
+        // cache states we've visited so far along with minimum distances to
+        // them; states on different steps have chopped different numbers of
+        // trees, so only the current frontier can be revisited
+        Map<State, Integer> knownStates = new HashMap<>();
+        int chopped = -1;
+        for (Path p : paths) {
+            StateJump head = p.head().get();
+            knownStates.merge(head.state, p.getDistance(), Math::min);
+            chopped = p.numSteps() - 1;
+        }
 
         // temporary set of new paths in the BFS loop
         Set<Path> newPaths;
@@ -58,7 +162,9 @@ class Solver {
         // Main pruned BFS loop
         int bfsSteps = 0;
         do {
-            newPaths = new HashSet<>();
+            onStep.accept(paths, chopped + bfsSteps);
+            // best path found so far to each new state
+            Map<State, Path> shortest = new HashMap<>();
             for (Path p : paths) {
                 StateJump head = p.head().get();
                 Set<StateJump> nextStates = head.state.nextStates();
@@ -72,23 +178,30 @@ class Solver {
                 for (StateJump sj : nextStates) {
                     // If the new destination state is not known yet, or it is
                     // known but the distance to get there was higher than
-                    // on this path, then add a new path.
+                    // on this path, then add a new path. Ties go to the path
+                    // that comes first in chop order, so that the frontier
+                    // doesn't depend on hash order.
                     int newDist = p.getDistance() + sj.dist;
-                    if (!knownStates.containsKey(sj.state)
-                        || knownStates.get(sj.state) > newDist) {
-                        Path np = new Path(p);
-                        np.add(sj);
-                        newPaths.add(np);
+                    Integer best = knownStates.get(sj.state);
+                    if (best != null && best < newDist) {
+                        continue;
+                    }
+                    Path np = new Path(p);
+                    np.add(sj);
+                    Path old = shortest.get(sj.state);
+                    if (best == null || best > newDist
+                        || old != null && Path.BY_CHOPS.compare(np, old) < 0) {
+                        shortest.put(sj.state, np);
                         knownStates.put(sj.state, newDist);
                     }
                 }
             }
+            newPaths = new HashSet<>(shortest.values());
             paths = newPaths;
-            System.out.println(
-                    String.format("Solver: path set size %d", paths.size()));
+            Solver.log(log, "Solver: path set size %d", paths.size());
             bfsSteps++;
         } while (newPaths.size() > 0);
-        System.out.println(String.format("Solver: %d BFS steps", bfsSteps));
+        Solver.log(log, "Solver: %d BFS steps", bfsSteps);
 
         // Filter out final paths that still have trees present
         Set<Path> finalValidPaths = finalPaths.stream()
@@ -97,16 +210,21 @@ class Solver {
             })
             .collect(Collectors.toSet());
         int filtered = finalPaths.size() - finalValidPaths.size();
-        System.out.println(
-                String.format("Solver: [WARN] filtered %s final paths with trees left",
-                              filtered));
+        Solver.log(log, "Solver: [WARN] filtered %s final paths with trees left", filtered);
 
-        // find a minimum distance final path
+        // find a minimum distance final path, first in chop order on ties
         if (finalValidPaths.size() == 0) {
             return Optional.empty();
         }
         Path minPath = Collections.min(finalValidPaths,
-                Comparator.comparingInt(Path::getDistance));
+                Comparator.comparingInt(Path::getDistance).thenComparing(Path.BY_CHOPS));
         return Optional.of(minPath);
     }
+
+    // print a line to `log`, unless it is null
+    static void log(PrintStream log, String format, Object... args) {
+        if (log != null) {
+            log.println(String.format(format, args));
+        }
+    }
 }
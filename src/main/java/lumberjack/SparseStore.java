@@ -0,0 +1,101 @@
+package lumberjack;
+
+/**
+ * Cell store for mostly flat grids that only keeps the non-zero cells
+ * (trees and trenches) in a hash map keyed by flat index.
+ *
+ * Memory and the cost of scanning for trees grow with the number of
+ * features, not with the area of the grid. Cells that are set to zero
+ * after the fact (chopped trees) keep their map entry with value 0, so a
+ * store never holds more entries than the features it ever had.
+ */
+class SparseStore extends CellStore {
+
+    /**
+     * Grids with fewer cells are always stored densely.
+     */
+    public static final int MIN_CELLS = 4096;
+
+    /**
+     * Grids with at most one feature in this many cells are stored sparsely.
+     * A feature costs about 16 bytes in the map against 1 byte per cell in
+     * the densest store.
+     */
+    public static final int MAX_DENSITY_INVERSE = 32;
+
+    private final int size;
+    private final IntIntHashMap features;
+
+    /**
+     * Create an empty (all zero) store of `size` cells with room for
+     * `features` non-zero cells.
+     */
+    public SparseStore(int size, int features) {
+        this.size = size;
+        this.features = new IntIntHashMap(features);
+    }
+
+    private SparseStore(SparseStore copy) {
+        this.size = copy.size;
+        this.features = new IntIntHashMap(copy.features);
+    }
+
+    /**
+     * Return true if a grid of `size` cells, `features` of them non-zero,
+     * is better stored sparsely.
+     */
+    public static boolean preferred(int size, int features) {
+        return size >= MIN_CELLS && (long) features * MAX_DENSITY_INVERSE <= size;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int get(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return this.features.get(index, 0);
+    }
+
+    @Override
+    public void set(int index, int value) {
+        if (index < 0 || index >= this.size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        if (value != 0 || this.features.containsKey(index)) {
+            this.features.put(index, value);
+        }
+    }
+
+    @Override
+    public boolean fits(int value) {
+        return true;
+    }
+
+    @Override
+    public CellStore copy() {
+        return new SparseStore(this);
+    }
+
+    @Override
+    public boolean isSparse() {
+        return true;
+    }
+
+    /**
+     * Call `action` with the index and value of every non-zero cell, in no
+     * particular order.
+     */
+    @Override
+    public void forEachNonZero(IntIntHashMap.EntryConsumer action) {
+        this.features.forEach((i, v) -> {
+            if (v != 0) {
+                action.accept(i, v);
+            }
+        });
+    }
+}
@@ -1,11 +1,14 @@
 package lumberjack;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
-import java.util.function.Predicate;
 
 /**
  * Models the state of the lumberjack's forest.
@@ -23,6 +26,15 @@ class State implements Iterable<Coord3> {
     // lumberjack position
     private Coord pos;
 
+    // algorithm used by findPath
+    private PathMode pathMode = PathMode.BFS;
+
+    // distance fields consulted by findPath before searching, if any
+    private DistanceCache distanceCache;
+
+    // whether nextStates records the moves of each jump
+    private boolean recordRoutes;
+
     /**
      * Create a new state given a grid and a lumberjack position.
      *
@@ -52,7 +64,8 @@ class State implements Iterable<Coord3> {
     /**
      * A semi-(copy constructor).
      *
-     * Both arguments are copied.
+     * Both arguments are copied; the cells of a frozen or off heap grid are
+     * only copied when the state first changes them.
      */
     public State(Grid grid, Coord p) {
         this.grid = new Grid(grid);
@@ -64,6 +77,9 @@ class State implements Iterable<Coord3> {
      */
     public State(State state) {
         this(state.grid, state.pos);
+        this.pathMode = state.pathMode;
+        this.distanceCache = state.distanceCache;
+        this.recordRoutes = state.recordRoutes;
     }
 
     /**
@@ -73,11 +89,86 @@ class State implements Iterable<Coord3> {
         return pos;
     }
 
+    public PathMode getPathMode() {
+        return this.pathMode;
+    }
+
+    /**
+     * Select the path finding algorithm used by this state and by every
+     * state derived from it.
+     *
+     * Fluent style. All modes compute the same distances.
+     */
+    public State setPathMode(PathMode mode) {
+        this.pathMode = mode;
+        return this;
+    }
+
+    /**
+     * Return the symmetry mapping this state to its canonical form, see
+     * {@link Symmetry#canonical(Grid, Coord)}.
+     */
+    public Symmetry canonicalSymmetry() {
+        return Symmetry.canonical(this.grid, this.pos);
+    }
+
+    /**
+     * Return a copy of this state with the symmetry `s` applied to the
+     * forest and the position. The search settings are kept.
+     */
+    public State transform(Symmetry s) {
+        Coord p = s.apply(this.pos, this.grid.getDepth(), this.grid.getWidth());
+        return new State(s.apply(this.grid), p).setPathMode(this.pathMode)
+            .setDistanceCache(this.distanceCache).setRecordRoutes(this.recordRoutes);
+    }
+
+    public DistanceCache getDistanceCache() {
+        return this.distanceCache;
+    }
+
+    /**
+     * Answer findPath from `cache`, shared by this state and every state
+     * derived from it, instead of searching with the path mode; null to
+     * search every time (the default). See {@link DistanceCache#shared()}.
+     *
+     * Fluent style.
+     */
+    public State setDistanceCache(DistanceCache cache) {
+        this.distanceCache = cache;
+        return this;
+    }
+
+    public boolean getRecordRoutes() {
+        return this.recordRoutes;
+    }
+
+    /**
+     * Have {@link #nextStates()} record the moves walked to each tree, for
+     * this state and every state derived from it, so that
+     * {@link Path#route()} replays them instead of searching again. The
+     * jumps are then found with a breadth first search regardless of the
+     * path mode and the distance cache; off by default.
+     *
+     * Fluent style.
+     */
+    public State setRecordRoutes(boolean record) {
+        this.recordRoutes = record;
+        return this;
+    }
+
     @Override
     public String toString() {
         return this.grid.annotateGrid(this.pos, "X");
     }
 
+    /**
+     * Write the forest to `out` with the lumberjack marked "X", as in
+     * {@link #toString()}, see {@link Grid#render(Appendable, Coord, String)}.
+     */
+    public void render(Appendable out) throws IOException {
+        this.grid.render(out, this.pos, "X");
+    }
+
     @Override
     public boolean equals(Object other) {
         if (!(other instanceof State)) {
@@ -92,6 +183,13 @@ class State implements Iterable<Coord3> {
         return 31 * this.grid.hashCode() + this.pos.hashCode();
     }
 
+    /**
+     * Return a copy of the forest.
+     */
+    public Grid getGrid() {
+        return new Grid(this.grid);
+    }
+
     public int getDepth() {
         return this.grid.getDepth();
     }
@@ -113,12 +211,29 @@ class State implements Iterable<Coord3> {
      * Return true if there are trees in the forest.
      */
     public boolean hasTrees() {
-        for (Coord3 c3 : this) {
-            if (c3.getZ() > 0) {
-                return true;
+        return this.grid.anyPositive();
+    }
+
+    /**
+     * Return the number of trees left in the forest.
+     */
+    public int countTrees() {
+        return this.grid.countPositive();
+    }
+
+    /**
+     * Return the heights of the trees in the forest in ascending order.
+     */
+    public int[] treeHeights() {
+        int[] res = new int[this.countTrees()];
+        int[] count = {0};
+        this.grid.forEachCell((x, y, h) -> {
+            if (h > 0) {
+                res[count[0]++] = h;
             }
-        }
-        return false;
+        });
+        Arrays.sort(res);
+        return res;
     }
 
     /**
@@ -135,11 +250,96 @@ class State implements Iterable<Coord3> {
      *     path.
      */
     public Optional<Integer> findPath(Coord to) {
-        Predicate<Coord3> passable = c3 -> {
-            return c3.getZ() == 0 || c3.projectXY().equals(to);
-        };
+        if (!this.grid.onGrid(to)) {
+            return Optional.empty();
+        }
+        return this.findPath(this.grid.index(to.getX(), to.getY()));
+    }
+
+    /**
+     * Same as {@link #findPath(Coord)} for a destination given by its flat
+     * grid index.
+     */
+    private Optional<Integer> findPath(int toIndex) {
+        int from = this.grid.index(this.pos.getX(), this.pos.getY());
+        int d = this.distanceCache != null
+            ? this.distanceCache.distance(this.grid, from, toIndex)
+            : this.pathMode.distance(this.grid, from, toIndex);
+        return d < 0 ? Optional.empty() : Optional.of(d);
+    }
+
+    /**
+     * Return a shortest route from the lumberjack's position to the given
+     * coordinate, under the same rules as {@link #findPath(Coord)}: the
+     * position first, then every cell stepped on, ending on `to`.
+     *
+     * @return the route, or an empty list if there is no path
+     */
+    public List<Coord> route(Coord to) {
+        List<Coord> res = new ArrayList<>();
+        if (!this.grid.onGrid(to)) {
+            return res;
+        }
+        int from = this.grid.index(this.pos.getX(), this.pos.getY());
+        for (int i : this.route(from, this.grid.index(to.getX(), to.getY()))) {
+            res.add(this.grid.coord(i));
+        }
+        return res;
+    }
 
-        return this.grid.minDistance(this.pos, to, passable);
+    // flat indices of a shortest route from `from` to `to` over flat ground
+    private int[] route(int from, int to) {
+        return this.grid.route(from, to, (n, h) -> {
+            return h == 0 || n == to;
+        });
+    }
+
+    /**
+     * Find a tree that can never be reached, proving that the forest can't
+     * be leveled.
+     *
+     * When the lumberjack goes for a tree of height h, at best every tree
+     * shorter than h has been chopped already. So the tree is certainly out
+     * of reach if it isn't reachable even with all trees of height at most
+     * h turned into flat ground. Trees are checked in the order they must
+     * be chopped, opening each height level in a union-find of flat
+     * ground, which takes little more than a single pass over the grid.
+     *
+     * Note that the converse does not hold: when no tree is reported, the
+     * forest may still be impossible to level.
+     *
+     * @return the first tree, in chopping order, that can never be reached,
+     *     or Optional.empty() if there is none
+     */
+    public Optional<Coord> firstUnreachableTree() {
+        // trees sorted by height, then flat index
+        long[] trees = new long[this.countTrees()];
+        int[] count = {0};
+        this.grid.forEachCell((x, y, h) -> {
+            if (h > 0) {
+                trees[count[0]++] = ((long) h << 32) | this.grid.index(x, y);
+            }
+        });
+        Arrays.sort(trees);
+
+        FlatComponents flat = new FlatComponents(this.grid);
+        int from = this.grid.index(this.pos.getX(), this.pos.getY());
+        int level = 0;
+        while (level < trees.length) {
+            int height = (int) (trees[level] >>> 32);
+            int end = level;
+            while (end < trees.length && (int) (trees[end] >>> 32) == height) {
+                flat.open((int) trees[end]);
+                end++;
+            }
+            for (int k = level; k < end; k++) {
+                if (!flat.canReach(from, (int) trees[k])) {
+                    return Optional.of(this.grid.coord((int) trees[k]));
+                }
+            }
+            level = end;
+        }
+        return Optional.empty();
     }
 
     /**
@@ -150,12 +350,15 @@ class State implements Iterable<Coord3> {
      * @return set of grid coordinates having the given height
      */
     public Set<Coord> getContour(int height) {
-        Set<Coord> res = new HashSet<>();
-        for (Coord3 c : this) {
-            if (c.getZ() == height) {
-                res.add(c.projectXY());
-            }
-        }
+        return this.toCoords(this.contourIndices(height));
+    }
+
+    /**
+     * Same as {@link #getContour(int)}, but returns flat grid indices.
+     */
+    public IntHashSet contourIndices(int height) {
+        IntHashSet res = new IntHashSet();
+        this.grid.forEachIndexOf(height, res::add);
         return res;
     }
 
@@ -173,19 +376,27 @@ class State implements Iterable<Coord3> {
      * @return set of trees that could be cut down next
      */
     public Set<Coord> nextTrees() {
-        int minHeight = 0;
-        for (Coord3 c : this) {
-            int h = c.getZ();
-            if (h > 0 && (minHeight == 0 || h < minHeight)) {
-                minHeight = h;
-            }
-        }
+        return this.toCoords(this.nextTreeIndices());
+    }
 
+    /**
+     * Same as {@link #nextTrees()}, but returns flat grid indices.
+     */
+    public IntHashSet nextTreeIndices() {
+        int minHeight = this.grid.minPositive();
         if (minHeight == 0) {
-            return new HashSet<>();
+            return new IntHashSet();
         }
 
-        return this.getContour(minHeight);
+        return this.contourIndices(minHeight);
+    }
+
+    private Set<Coord> toCoords(IntHashSet indices) {
+        Set<Coord> res = new HashSet<>();
+        indices.forEach(i -> {
+            res.add(this.grid.coord(i));
+        });
+        return res;
     }
 
     /**
@@ -201,6 +412,19 @@ class State implements Iterable<Coord3> {
         return this;
     }
 
+    /**
+     * Modify the current state so that the cell at `p` has height `h`.
+     *
+     * Fluent style.
+     */
+    public State setHeight(Coord p, int h) {
+        if (h < -1) {
+            throw new IllegalArgumentException("invalid height " + h);
+        }
+        this.grid.setValue(p, h);
+        return this;
+    }
+
     /**
      * Return a set of states which are reachable from the current state via
      * movement and a single tree chop.
@@ -208,12 +432,25 @@ class State implements Iterable<Coord3> {
      * The returned state do not share memory with the current state.
      */
     public Set<StateJump> nextStates() {
-        Set<Coord> nextTrees = this.nextTrees();
+        int[] nextTrees = this.nextTreeIndices().toArray();
         Set<StateJump> res = new HashSet<>();
-        for (Coord t : nextTrees) {
+        int from = this.grid.index(this.pos.getX(), this.pos.getY());
+        for (int t : nextTrees) {
+            // skip the path search for trees that are walled off
+            if (!this.grid.components().canReach(from, t)) {
+                continue;
+            }
+            if (this.recordRoutes) {
+                int[] route = this.route(from, t);
+                if (route.length > 0) {
+                    State newState = new State(this).chop(this.grid.coord(t));
+                    res.add(new StateJump(newState, route, this.grid.getWidth()));
+                }
+                continue;
+            }
             Optional<Integer> d = this.findPath(t);
             if (d.isPresent()) {
-                State newState = new State(this).chop(t);
+                State newState = new State(this).chop(this.grid.coord(t));
                 res.add(new StateJump(newState, d.get()));
             }
         }
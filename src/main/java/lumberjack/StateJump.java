@@ -1,20 +1,137 @@
 package lumberjack;
 
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 /**
  * Holds a pair of a state and a distance required to get there from some
  * unspecified starting point.
+ *
+ * A jump may also hold the moves walked to get there, packed two bits per
+ * step, so that the cells of the leg can be replayed without searching
+ * again. See {@link State#setRecordRoutes(boolean)}.
  */
 class StateJump {
+    // directions of a move, as stored in `moves`
+    static final int UP = 0;
+    static final int DOWN = 1;
+    static final int LEFT = 2;
+    static final int RIGHT = 3;
+
     public State state;
     public int dist;
 
+    // `dist` moves, four per byte starting from the low bits; null if the
+    // route wasn't recorded. Never changed once set, so copies share it.
+    private final byte[] moves;
+
     public StateJump(State state, int dist) {
+        this(state, dist, null);
+    }
+
+    /**
+     * Create a jump that walked the given route, a list of adjacent flat
+     * indices on a grid of the given width: the start first, then `dist`
+     * cells ending on the state's position.
+     */
+    public StateJump(State state, int[] route, int width) {
+        this(state, route.length - 1, StateJump.encode(route, width));
+    }
+
+    private StateJump(State state, int dist, byte[] moves) {
         this.state = state;
         this.dist = dist;
+        this.moves = moves;
     }
 
     public StateJump(StateJump copy) {
         this.state = new State(copy.state);
         this.dist = copy.dist;
+        this.moves = copy.moves;
+    }
+
+    /**
+     * Return whether the moves of this jump were recorded.
+     */
+    public boolean hasMoves() {
+        return this.moves != null;
+    }
+
+    /**
+     * Return the cells walked by this jump when it starts on `from`, less
+     * `from` itself, decoded from the recorded moves as the iterator
+     * advances.
+     *
+     * @throws IllegalStateException if the moves weren't recorded
+     */
+    public Iterator<Coord> cells(Coord from) {
+        if (this.moves == null) {
+            throw new IllegalStateException("moves were not recorded");
+        }
+        return new Iterator<Coord>() {
+            private int k = 0;
+            private int x = from.getX();
+            private int y = from.getY();
+
+            @Override
+            public boolean hasNext() {
+                return this.k < StateJump.this.dist;
+            }
+
+            @Override
+            public Coord next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                switch (StateJump.this.move(this.k++)) {
+                case UP:
+                    this.x--;
+                    break;
+                case DOWN:
+                    this.x++;
+                    break;
+                case LEFT:
+                    this.y--;
+                    break;
+                default:
+                    this.y++;
+                    break;
+                }
+                return new Coord(this.x, this.y);
+            }
+        };
+    }
+
+    /**
+     * Return a copy of the jump with the symmetry `s` applied to the state
+     * and to the recorded moves, if any.
+     */
+    public StateJump transform(Symmetry s) {
+        State t = this.state.transform(s);
+        if (this.moves == null) {
+            return new StateJump(t, this.dist);
+        }
+        byte[] res = new byte[this.moves.length];
+        for (int k = 0; k < this.dist; k++) {
+            res[k >> 2] |= s.move(this.move(k)) << ((k & 3) << 1);
+        }
+        return new StateJump(t, this.dist, res);
+    }
+
+    // direction of the k-th move
+    private int move(int k) {
+        return (this.moves[k >> 2] >> ((k & 3) << 1)) & 3;
+    }
+
+    // pack the steps between adjacent cells of `route`
+    private static byte[] encode(int[] route, int width) {
+        byte[] res = new byte[(route.length + 2) >> 2];
+        for (int k = 0; k + 1 < route.length; k++) {
+            int step = route[k + 1] - route[k];
+            // vertical steps first: on a grid one cell wide, -width == -1
+            int dir = step == -width ? UP : step == width ? DOWN : step == -1 ? LEFT : RIGHT;
+            res[k >> 2] |= dir << ((k & 3) << 1);
+        }
+        return res;
     }
 }
@@ -0,0 +1,184 @@
+package lumberjack;
+
+/**
+ * The eight symmetries of a rectangular grid: rotations by multiples of 90
+ * degrees and their mirror images.
+ *
+ * A symmetry maps the cell (x, y) of a depth x width grid by optionally
+ * swapping the coordinates (which swaps depth and width) and then
+ * optionally flipping the rows and the columns of the result. All of them
+ * preserve adjacency, so they preserve path lengths and solutions.
+ */
+enum Symmetry {
+    IDENTITY(false, false, false),
+    FLIP_ROWS(false, true, false),
+    FLIP_COLUMNS(false, false, true),
+    ROTATE_180(false, true, true),
+    TRANSPOSE(true, false, false),
+    ROTATE_90(true, false, true),
+    ROTATE_270(true, true, false),
+    ANTI_TRANSPOSE(true, true, true);
+
+    private final boolean swap;
+    private final boolean flipRows;
+    private final boolean flipColumns;
+
+    Symmetry(boolean swap, boolean flipRows, boolean flipColumns) {
+        this.swap = swap;
+        this.flipRows = flipRows;
+        this.flipColumns = flipColumns;
+    }
+
+    /**
+     * Return the depth of a depth x width grid after the symmetry.
+     */
+    public int depth(int depth, int width) {
+        return this.swap ? width : depth;
+    }
+
+    /**
+     * Return the width of a depth x width grid after the symmetry.
+     */
+    public int width(int depth, int width) {
+        return this.swap ? depth : width;
+    }
+
+    /**
+     * Return the flat index that (x, y) of a depth x width grid maps to.
+     */
+    public int index(int x, int y, int depth, int width) {
+        int u = this.swap ? y : x;
+        int v = this.swap ? x : y;
+        int d = this.depth(depth, width);
+        int w = this.width(depth, width);
+        if (this.flipRows) {
+            u = d - 1 - u;
+        }
+        if (this.flipColumns) {
+            v = w - 1 - v;
+        }
+        return u * w + v;
+    }
+
+    /**
+     * Return the coordinate that `p` of a depth x width grid maps to.
+     */
+    public Coord apply(Coord p, int depth, int width) {
+        int i = this.index(p.getX(), p.getY(), depth, width);
+        int w = this.width(depth, width);
+        return new Coord(i / w, i % w);
+    }
+
+    /**
+     * Return the direction that a move in direction `dir` maps to, one of
+     * {@link StateJump#UP}, DOWN, LEFT and RIGHT.
+     */
+    public int move(int dir) {
+        // swapping exchanges up with left and down with right
+        int res = this.swap ? dir ^ 2 : dir;
+        if (res < StateJump.LEFT ? this.flipRows : this.flipColumns) {
+            res ^= 1;
+        }
+        return res;
+    }
+
+    /**
+     * Return a copy of `g` with the symmetry applied. Mostly flat grids are
+     * stored sparsely, others in the narrowest array that fits.
+     */
+    public Grid apply(Grid g) {
+        int d = g.getDepth();
+        int w = g.getWidth();
+        int n = d * w;
+        int min = 0;
+        int max = 0;
+        int features = 0;
+        for (int i = 0; i < n; i++) {
+            int v = g.valueAt(i);
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            if (v != 0) {
+                features++;
+            }
+        }
+        CellStore cells = SparseStore.preferred(n, features)
+            ? new SparseStore(n, features) : CellStore.forRange(n, min, max);
+        for (int x = 0; x < d; x++) {
+            for (int y = 0; y < w; y++) {
+                int v = g.valueAt(x * w + y);
+                if (v != 0) {
+                    cells.set(this.index(x, y, d, w), v);
+                }
+            }
+        }
+        return new Grid(this.depth(d, w), this.width(d, w), cells);
+    }
+
+    /**
+     * Return the symmetry that undoes this one.
+     */
+    public Symmetry inverse() {
+        if (!this.swap) {
+            return this;
+        }
+        // (x, y) -> (y', x') flipped; undoing it swaps back and exchanges
+        // which of rows and columns is flipped
+        for (Symmetry s : Symmetry.values()) {
+            if (s.swap && s.flipRows == this.flipColumns && s.flipColumns == this.flipRows) {
+                return s;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * Return the symmetry that maps the forest `g` with the lumberjack at
+     * `pos` to its canonical form.
+     *
+     * The canonical form is the least of the eight images, ordered by
+     * depth, then position, then the cells in row major order. Forests that
+     * are images of one another share their canonical form. Ties (forests
+     * with symmetries of their own) go to the first symmetry in declaration
+     * order.
+     */
+    public static Symmetry canonical(Grid g, Coord pos) {
+        Symmetry best = IDENTITY;
+        for (Symmetry s : Symmetry.values()) {
+            if (s.compare(best, g, pos) < 0) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    // compare the images of (g, pos) under this and `other`
+    private int compare(Symmetry other, Grid g, Coord pos) {
+        int d = g.getDepth();
+        int w = g.getWidth();
+        int c = Integer.compare(this.depth(d, w), other.depth(d, w));
+        if (c != 0) {
+            return c;
+        }
+        c = Integer.compare(this.index(pos.getX(), pos.getY(), d, w),
+                            other.index(pos.getX(), pos.getY(), d, w));
+        if (c != 0) {
+            return c;
+        }
+        // walk the images in row major order by mapping each image cell
+        // back to the source
+        Symmetry inv = this.inverse();
+        Symmetry otherInv = other.inverse();
+        int id = this.depth(d, w);
+        int iw = this.width(d, w);
+        for (int x = 0; x < id; x++) {
+            for (int y = 0; y < iw; y++) {
+                c = Integer.compare(g.valueAt(inv.index(x, y, id, iw)),
+                                    g.valueAt(otherInv.index(x, y, id, iw)));
+                if (c != 0) {
+                    return c;
+                }
+            }
+        }
+        return 0;
+    }
+}
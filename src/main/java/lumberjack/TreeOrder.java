@@ -0,0 +1,104 @@
+package lumberjack;
+
+import java.util.Arrays;
+
+/**
+ * Numbering of the trees of a forest in chopping order: by height, then by
+ * flat index.
+ *
+ * Every state the solver reaches from the forest is the initial forest with
+ * some trees chopped and the lumberjack standing on the last of them. Such
+ * a state fits in a bitset over tree ids plus a position, a few words
+ * instead of a copy of the grid.
+ */
+class TreeOrder {
+
+    // flat index and height of each tree, by id
+    private final int[] cells;
+    private final int[] heights;
+    // first id past the height level of each id
+    private final int[] levelEnds;
+    // id of each tree, keyed by flat index
+    private final IntIntHashMap ids;
+
+    /**
+     * Number the trees of `grid`.
+     */
+    public TreeOrder(Grid grid) {
+        int count = grid.countPositive();
+        long[] trees = new long[count];
+        int[] k = {0};
+        grid.forEachCell((x, y, h) -> {
+            if (h > 0) {
+                trees[k[0]++] = ((long) h << 32) | grid.index(x, y);
+            }
+        });
+        Arrays.sort(trees);
+
+        this.cells = new int[count];
+        this.heights = new int[count];
+        this.levelEnds = new int[count];
+        this.ids = new IntIntHashMap(count);
+        for (int id = 0; id < count; id++) {
+            this.cells[id] = (int) trees[id];
+            this.heights[id] = (int) (trees[id] >>> 32);
+            this.ids.put(this.cells[id], id);
+        }
+        for (int id = count - 1; id >= 0; id--) {
+            boolean last = id == count - 1 || this.heights[id + 1] != this.heights[id];
+            this.levelEnds[id] = last ? id + 1 : this.levelEnds[id + 1];
+        }
+    }
+
+    /**
+     * Return the number of trees.
+     */
+    public int size() {
+        return this.cells.length;
+    }
+
+    /**
+     * Return the number of longs in a bitset over tree ids.
+     */
+    public int words() {
+        return (this.cells.length + 63) >>> 6;
+    }
+
+    public int cell(int id) {
+        return this.cells[id];
+    }
+
+    public int height(int id) {
+        return this.heights[id];
+    }
+
+    /**
+     * Return the id of the tree at flat index `cell`, or -1 if there is
+     * none.
+     */
+    public int id(int cell) {
+        return this.ids.get(cell, -1);
+    }
+
+    /**
+     * Return the first id past the height level of tree `id`: trees
+     * [id, levelEnd(id)) have the same height.
+     */
+    public int levelEnd(int id) {
+        return this.levelEnds[id];
+    }
+
+    /**
+     * Return the smallest id not in the bitset `chopped`, or size() if all
+     * trees are chopped.
+     */
+    public int firstStanding(long[] chopped) {
+        for (int w = 0; w < chopped.length; w++) {
+            if (chopped[w] != -1L) {
+                return Math.min(this.cells.length,
+                                (w << 6) + Long.numberOfTrailingZeros(~chopped[w]));
+            }
+        }
+        return this.cells.length;
+    }
+}
@@ -0,0 +1,149 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+//
+import org.junit.Test;
+
+
+public class BatchRunnerTest {
+
+    private static File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("batch").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static File write(File dir, String name, String text) throws IOException {
+        File f = new File(dir, name);
+        f.deleteOnExit();
+        Files.write(f.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+        return f;
+    }
+
+    // map each file name of the output to the rest of its line
+    private static Map<String, String> results(String output) {
+        Map<String, String> results = new HashMap<>();
+        for (String line : output.split("\n")) {
+            String[] fields = line.split("\t", 2);
+            results.put(new File(fields[0]).getName(), fields[1]);
+        }
+        return results;
+    }
+
+    /**
+     * Test a batch of binary, text, unsolvable and malformed forests.
+     */
+    @Test
+    public void testBatch() throws IOException {
+        File dir = BatchRunnerTest.tempDir();
+        File binary = new File(dir, "grid6.ljf");
+        binary.deleteOnExit();
+        ForestFile.write(binary, new Grid(SolverTest.grid6), new Coord(0, 0));
+        BatchRunnerTest.write(dir, "grid6.txt",
+                              "0 0 0 0 3\n0 2 -1 0 0\n0 -1 -1 0 0\n0 0 0 0 0\n4 0 0 0 1\n");
+        BatchRunnerTest.write(dir, "walled.txt", "0,-1,1\n");
+        BatchRunnerTest.write(dir, "ragged.txt", "0 1\n2\n");
+
+        StringWriter out = new StringWriter();
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream chatter = new ByteArrayOutputStream();
+        BatchRunner.Summary summary;
+        try {
+            System.setOut(new PrintStream(chatter));
+            summary = new BatchRunner(3, 1, new Coord(0, 0))
+                .run(Collections.singletonList(dir), out);
+        } finally {
+            System.setOut(stdout);
+        }
+        // the solvers print nothing
+        assertEquals(0, chatter.size());
+
+        Map<String, String> results = BatchRunnerTest.results(out.toString());
+        assertEquals(4, results.size());
+        assertTrue(results.get("grid6.ljf").startsWith("28\t"));
+        assertTrue(results.get("grid6.txt").startsWith("28\t"));
+        assertTrue(results.get("walled.txt").startsWith("-1\t"));
+        assertTrue(results.get("ragged.txt").startsWith("error: row 2"));
+        assertEquals(3, summary.getSolved());
+        assertEquals(1, summary.getFailed());
+        assertTrue(summary.latencyPercentile(50) <= summary.latencyPercentile(100));
+        assertTrue(summary.solvePercentile(100) <= summary.latencyPercentile(100));
+    }
+
+    /**
+     * Test that many forests through small queues give the same distances
+     * as solving them one by one.
+     */
+    @Test
+    public void testMatchesSolver() throws IOException {
+        Random rng = new Random(48);
+        File dir = BatchRunnerTest.tempDir();
+        Map<String, String> expected = new HashMap<>();
+        for (int k = 0; k < 40; k++) {
+            int[][] forest = PathModeTest.randomForest(rng, 4, 5, 0.1, 0.3);
+            forest[0][0] = 0;
+            String name = String.format("forest%02d.ljf", k);
+            File f = new File(dir, name);
+            f.deleteOnExit();
+            ForestFile.write(f, new Grid(forest), new Coord(0, 0));
+            expected.put(name, Integer.toString(new Solver(new State(forest, new Coord(0, 0)))
+                                                    .solve()));
+        }
+
+        StringWriter out = new StringWriter();
+        BatchRunner.Summary summary = new BatchRunner(4, 2, new Coord(0, 0))
+            .run(Arrays.asList(dir), out);
+        Map<String, String> results = BatchRunnerTest.results(out.toString());
+        assertEquals(expected.size(), results.size());
+        for (Map.Entry<String, String> e : expected.entrySet()) {
+            assertEquals(e.getValue(), results.get(e.getKey()).split("\t")[0]);
+        }
+        assertEquals(40, summary.getSolved());
+        assertEquals(0, summary.getFailed());
+        assertTrue(summary.throughput() > 0);
+    }
+
+    /**
+     * Test that times are written with a decimal point whatever the
+     * default locale.
+     */
+    @Test
+    public void testRootLocale() throws IOException {
+        File dir = BatchRunnerTest.tempDir();
+        File f = new File(dir, "grid6.ljf");
+        f.deleteOnExit();
+        ForestFile.write(f, new Grid(SolverTest.grid6), new Coord(0, 0));
+
+        Locale locale = Locale.getDefault();
+        StringWriter out = new StringWriter();
+        ByteArrayOutputStream summaryOut = new ByteArrayOutputStream();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            new BatchRunner(1, 1, new Coord(0, 0)).run(Arrays.asList(dir), out)
+                .print(new PrintStream(summaryOut));
+        } finally {
+            Locale.setDefault(locale);
+        }
+        assertTrue(BatchRunnerTest.results(out.toString()).get("grid6.ljf")
+                   .matches("28\t\\d+\\.\\d{3}"));
+        String[] summary = summaryOut.toString().split("\\R");
+        assertTrue(summary[0].matches(
+            "1 solved, 0 failed in \\d+\\.\\d{3} s \\(\\d+\\.\\d forests/s\\)"));
+        assertTrue(summary[1].matches("latency ms:( \\w+=\\d+\\.\\d{3}){4}"));
+    }
+}
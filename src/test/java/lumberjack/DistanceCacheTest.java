@@ -0,0 +1,138 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Optional;
+import java.util.Random;
+//
+import org.junit.Test;
+
+
+public class DistanceCacheTest {
+
+    // 28 moves, lots of branching
+    private static int[][] dense = {
+        {1, 1, 1, 2, 3},
+        {1, 1, 1, 2, 1},
+        {1, 1, 2, 2, 1},
+        {1, 2, 2, 2, 1},
+        {1, 1, 1, 1, 0}};
+
+    /**
+     * Test that the fingerprint follows edits and only depends on flat
+     * cells.
+     */
+    @Test
+    public void testFingerprint() {
+        Random rng = new Random(47);
+        int[][] forest = PathModeTest.randomForest(rng, 12, 9, 0.15, 0.15);
+        Grid g = new Grid(forest);
+        long before = g.flatFingerprint();
+        Grid copy = new Grid(g);
+        for (int k = 0; k < 30; k++) {
+            Coord c = new Coord(rng.nextInt(12), rng.nextInt(9));
+            int h = rng.nextInt(4) - 1;
+            copy.setValue(c, h);
+            forest[c.getX()][c.getY()] = h;
+            assertEquals(new Grid(forest).flatFingerprint(), copy.flatFingerprint());
+        }
+        assertEquals(before, g.flatFingerprint());
+
+        // trees and trenches look the same
+        Grid a = new Grid(new int[][] {{0, 1}, {-1, 0}});
+        Grid b = new Grid(new int[][] {{0, -1}, {7, 0}});
+        assertEquals(a.flatFingerprint(), b.flatFingerprint());
+        assertNotEquals(a.flatFingerprint(), new Grid(new int[2][2]).flatFingerprint());
+    }
+
+    /**
+     * Test that cached distances match path finding, and that queries from
+     * the same source on the same layout hit.
+     */
+    @Test
+    public void testDistances() {
+        Random rng = new Random(470);
+        DistanceCache cache = new DistanceCache(1L << 30);
+        for (int round = 0; round < 20; round++) {
+            Grid g = new Grid(PathModeTest.randomForest(rng, 10, 13, 0.25, 0.2));
+            int n = g.getDepth() * g.getWidth();
+            int from = rng.nextInt(n);
+            for (int to = 0; to < n; to++) {
+                assertEquals(PathMode.BFS.distance(g, from, to), cache.distance(g, from, to));
+            }
+            assertEquals(round + 1, cache.misses());
+        }
+        assertEquals(20 * (10 * 13 - 1), cache.hits());
+        assertEquals(20, cache.size());
+        assertEquals(0, cache.evictions());
+    }
+
+    /**
+     * Test least recently used eviction under a memory budget.
+     */
+    @Test
+    public void testEviction() {
+        Grid g = new Grid(new int[10][10]);
+        DistanceCache cache = new DistanceCache(1L << 30);
+        cache.distance(g, 0, 99);
+        long field = cache.bytes();
+        cache.setBudget(2 * field);
+
+        cache.distance(g, 1, 99);
+        cache.distance(g, 0, 99);
+        cache.distance(g, 2, 99);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertEquals(2 * field, cache.bytes());
+
+        // source 1 was least recently used
+        cache.distance(g, 0, 50);
+        assertEquals(2, cache.hits());
+        cache.distance(g, 1, 50);
+        assertEquals(4, cache.misses());
+    }
+
+    /**
+     * Test that solving with a cache gives the same result and reuses
+     * fields across states.
+     */
+    @Test
+    public void testSolveWithCache() {
+        DistanceCache cache = new DistanceCache(1L << 26);
+        State initial = new State(dense, new Coord(4, 4)).setDistanceCache(cache);
+        assertEquals(28, new Solver(initial).solve());
+        assertTrue(cache.hits() > cache.misses());
+
+        Random rng = new Random(4700);
+        for (int round = 0; round < 10; round++) {
+            State s = new State(PathModeTest.randomForest(rng, 5, 6, 0.1, 0.3), new Coord(0, 0));
+            int expected = new Solver(s).solve();
+            assertEquals(expected, new Solver(new State(s).setDistanceCache(cache)).solve());
+        }
+    }
+
+    /**
+     * Test that lookups on chopped states derive the flat cells from the
+     * parent's bitset instead of building one from the cells.
+     */
+    @Test
+    public void testChopKeepsBitset() {
+        DistanceCache cache = new DistanceCache(1L << 26);
+        State initial = new State(dense, new Coord(4, 4)).setDistanceCache(cache);
+        long builds = PassabilityBits.builds();
+        assertEquals(Optional.of(1), initial.findPath(new Coord(4, 3)));
+        assertEquals(builds + 1, PassabilityBits.builds());
+
+        State chopped = new State(initial).chop(new Coord(4, 3));
+        assertEquals(Optional.of(2), chopped.findPath(new Coord(3, 4)));
+        assertEquals(builds + 1, PassabilityBits.builds());
+        assertEquals(2, cache.misses());
+
+        Solver solver = new Solver(new State(initial));
+        solver.setLog(null);
+        assertEquals(28, solver.solve());
+        assertEquals(builds + 1, PassabilityBits.builds());
+    }
+}
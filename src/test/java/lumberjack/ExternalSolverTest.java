@@ -0,0 +1,80 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.Random;
+//
+import org.junit.Test;
+
+
+public class ExternalSolverTest {
+
+    // 28 moves, lots of branching
+    private static int[][] dense = {
+        {1, 1, 1, 2, 3},
+        {1, 1, 1, 2, 1},
+        {1, 1, 2, 2, 1},
+        {1, 2, 2, 2, 1},
+        {1, 1, 1, 1, 0}};
+
+    // tree surrounded by moat
+    private static int[][] moat = {
+        {0,0,0,0,0},
+        {0,-1,-1,-1,0},
+        {0,-1,1,-1,0},
+        {0,-1,-1,-1,0},
+        {0,0,0,0,0}};
+
+    /**
+     * Test that tiny memory budgets, which force many runs and merge
+     * passes, give the same solutions as the in-memory solver.
+     */
+    @Test
+    public void testAgreesWithSolver() throws IOException {
+        File dir = Files.createTempDirectory("external-solver-test").toFile();
+        dir.deleteOnExit();
+
+        ExternalSolver ext = new ExternalSolver(new State(dense, new Coord(4, 4)), dir, 3);
+        assertEquals(28, ext.solve());
+        assertTrue(ext.getRunsWritten() > 64);
+        assertEquals(28, new ExternalSolver(new State(SolverTest.grid6, new Coord(0, 0)), dir, 1)
+                     .solve());
+        assertEquals(-1, new ExternalSolver(new State(moat, new Coord(0, 0)), dir, 1).solve());
+        assertEquals(0, new ExternalSolver(new State(new int[2][2], new Coord(0, 0))).solve());
+
+        Random rng = new Random(45);
+        for (int round = 0; round < 20; round++) {
+            int[][] forest = PathModeTest.randomForest(rng, 5, 6, 0.15, 0.3);
+            forest[0][0] = 0;
+            State state = new State(forest, new Coord(0, 0));
+            assertEquals(new Solver(state).solve(), new ExternalSolver(state, dir, 4).solve());
+        }
+        // temporary files are cleaned up
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    /**
+     * Test that the path rebuilt from the step files is a valid solution.
+     */
+    @Test
+    public void testDetailedSolve() {
+        State initial = new State(dense, new Coord(4, 4));
+        Optional<Path> path = new ExternalSolver(initial, null, 8).detailedSolve();
+        assertTrue(path.isPresent());
+        assertEquals(28, path.get().getDistance());
+        assertEquals(initial, path.get().iterator().next().state);
+        assertFalse(path.get().head().get().state.hasTrees());
+
+        int cells = 0;
+        for (Coord c : path.get().route()) {
+            cells++;
+        }
+        assertEquals(29, cells);
+    }
+}
@@ -0,0 +1,110 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+//
+import org.junit.Test;
+
+
+public class ForestFileTest {
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("forest", ".ljf");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Test that forests of each cell width round trip through a file.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        Random rng = new Random(39);
+        int[] heights = {5, 1000, 100000};
+        int[] widths = {1, 2, 4};
+        for (int k = 0; k < heights.length; k++) {
+            Grid g = new Grid(PathModeTest.randomForest(rng, 13, 17, 0.3, 0.2));
+            g.setValue(new Coord(12, 16), heights[k]);
+            File f = ForestFileTest.tempFile();
+            ForestFile.write(f, g, new Coord(3, 4));
+            assertEquals(ForestFile.HEADER_BYTES + 13 * 17 * widths[k], f.length());
+
+            ForestFile forest = ForestFile.read(f);
+            assertEquals(new Coord(3, 4), forest.getStart());
+            assertEquals(g, forest.getGrid());
+            MappedStore store = (MappedStore) forest.getGrid().getCellStore();
+            assertEquals(widths[k], store.bytesPerCell());
+        }
+    }
+
+    /**
+     * Test that states share the mapped cells until they are modified, and
+     * that solving a mapped forest gives the same result.
+     */
+    @Test
+    public void testMappedState() throws IOException {
+        File f = ForestFileTest.tempFile();
+        ForestFile.write(f, new Grid(SolverTest.grid6), new Coord(0, 0));
+        ForestFile forest = ForestFile.read(f);
+        CellStore mapped = forest.getGrid().getCellStore();
+
+        Grid copy = new Grid(forest.getGrid());
+        assertSame(mapped, copy.getCellStore());
+        copy.setValue(new Coord(0, 4), 0);
+        assertTrue(!(copy.getCellStore() instanceof MappedStore));
+        assertEquals(0, copy.getValue(new Coord(0, 4)));
+        assertEquals(3, forest.getGrid().getValue(new Coord(0, 4)));
+
+        State initial = forest.toState();
+        assertEquals(new State(SolverTest.grid6, new Coord(0, 0)), initial);
+        assertEquals(28, new Solver(initial).solve());
+        assertEquals(3, forest.getGrid().getValue(new Coord(0, 4)));
+    }
+
+    /**
+     * Test that malformed files are rejected.
+     */
+    @Test
+    public void testMalformed() throws IOException {
+        File f = ForestFileTest.tempFile();
+        ForestFile.write(f, new Grid(SolverTest.grid6), new Coord(0, 0));
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertThrows(ForestFormatException.class, () -> ForestFile.read(f));
+
+        ForestFile.write(f, new Grid(SolverTest.grid6), new Coord(0, 0));
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(5);
+            raf.write(3);
+        }
+        assertThrows(ForestFormatException.class, () -> ForestFile.read(f));
+
+        ForestFile.write(f, new Grid(SolverTest.grid6), new Coord(0, 0));
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.write('X');
+        }
+        assertThrows(ForestFormatException.class, () -> ForestFile.read(f));
+
+        // a height below -1 in the cells: grid6 has one byte per cell, and
+        // (1, 3) is its ninth
+        ForestFile.write(f, new Grid(SolverTest.grid6), new Coord(0, 0));
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(ForestFile.HEADER_BYTES + 8);
+            raf.write(-5);
+        }
+        ForestFormatException e =
+            assertThrows(ForestFormatException.class, () -> ForestFile.read(f));
+        assertTrue(e.getMessage().contains("(1, 3)"));
+
+        assertThrows(IllegalArgumentException.class,
+            () -> ForestFile.write(f, new Grid(SolverTest.grid6), new Coord(5, 0)));
+    }
+}
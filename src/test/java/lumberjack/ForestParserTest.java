@@ -0,0 +1,94 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+//
+import org.junit.Test;
+
+
+public class ForestParserTest {
+
+    private static int[][] grid1 = {
+        {0,1,0},
+        {0,0,-1},
+        {3,0,0}};
+
+    private static Grid parse(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return ForestParser.parse(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    private static void assertMalformed(String text, int row, int column) {
+        ForestFormatException e = assertThrows(ForestFormatException.class,
+            () -> ForestParserTest.parse(text));
+        assertEquals(e.getMessage(), row, e.getRow());
+        assertEquals(e.getMessage(), column, e.getColumn());
+    }
+
+    /**
+     * Test the accepted layouts.
+     */
+    @Test
+    public void testParse() throws IOException {
+        Grid expected = new Grid(grid1);
+        assertEquals(expected, parse("0 1 0\n0 0 -1\n3 0 0\n"));
+        assertEquals(expected, parse("0,1,0\n0,0,-1\n3,0,0"));
+        assertEquals(expected, parse("\n  0 ,\t1, 0\r\n\r\n0 0 -1\r\n3  0 0\n\n"));
+        assertEquals(new Grid(new int[][] {{100000, -1}}), parse("100000 -1"));
+    }
+
+    /**
+     * Test that parsing a large forest matches the array constructor,
+     * including the choice of store, across buffer refills.
+     */
+    @Test
+    public void testParseLarge() throws IOException {
+        Random rng = new Random(40);
+        int[][][] forests = {
+            PathModeTest.randomForest(rng, 150, 200, 0.3, 0.2),
+            new int[300][300],
+        };
+        forests[1][17][42] = 300;
+        forests[1][299][0] = -1;
+        for (int[][] forest : forests) {
+            StringBuilder sb = new StringBuilder();
+            for (int[] row : forest) {
+                for (int j = 0; j < row.length; j++) {
+                    sb.append(j == 0 ? "" : ",").append(row[j]);
+                }
+                sb.append('\n');
+            }
+            Grid expected = new Grid(forest);
+            Grid parsed = parse(sb.toString());
+            assertEquals(expected, parsed);
+            assertEquals(expected.getCellStore().isSparse(), parsed.getCellStore().isSparse());
+        }
+        assertTrue(parse(new String(new char[4096]).replace("\0", "0 ") + "5")
+            .getCellStore().isSparse());
+    }
+
+    /**
+     * Test that malformed input is reported at the offending character.
+     */
+    @Test
+    public void testMalformed() {
+        assertMalformed("0 1\n0 -2\n", 2, 3);
+        assertMalformed("0,,1\n", 1, 3);
+        assertMalformed("0,1,\n", 1, 5);
+        assertMalformed(",1\n", 1, 1);
+        assertMalformed("0 1\n0 1 2\n", 2, 5);
+        assertMalformed("0 1 2\n0 1\n", 2, 4);
+        assertMalformed("0 1\n0 x\n", 2, 3);
+        assertMalformed("1-2\n", 1, 2);
+        assertMalformed("0 - 1\n", 1, 3);
+        assertMalformed("0 3000000000\n", 1, 3);
+        assertThrows(ForestFormatException.class, () -> parse(" \n\n"));
+    }
+}
@@ -0,0 +1,119 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+//
+import org.junit.Test;
+
+
+public class FrozenGridTest {
+
+    /**
+     * Test that snapshots can't be changed, and that derived grids share
+     * cells until they are written.
+     */
+    @Test
+    public void testCopyOnWrite() {
+        Grid source = new Grid(SolverTest.grid6);
+        FrozenGrid frozen = FrozenGrid.of(source);
+        source.setValue(new Coord(0, 4), 0);
+        assertEquals(3, frozen.view().getValue(new Coord(0, 4)));
+        assertTrue(frozen.view().isFrozen());
+        assertThrows(UnsupportedOperationException.class,
+            () -> frozen.view().setValue(new Coord(0, 0), 1));
+
+        Grid thawed = frozen.thaw();
+        assertFalse(thawed.isFrozen());
+        assertSame(frozen.view().getCellStore(), thawed.getCellStore());
+        assertSame(frozen.view().passability(), thawed.passability());
+        assertSame(frozen.view().components(), thawed.components());
+        assertSame(frozen.view().adjacency(), thawed.adjacency());
+        assertSame(frozen.view().hierarchy(), thawed.hierarchy());
+        Grid copy = new Grid(thawed);
+        assertSame(frozen.view().getCellStore(), copy.getCellStore());
+        assertSame(frozen.view().components(), copy.components());
+
+        thawed.setValue(new Coord(1, 1), 0);
+        assertNotSame(frozen.view().getCellStore(), thawed.getCellStore());
+        assertNotSame(frozen.view().components(), thawed.components());
+        assertNotSame(frozen.view().adjacency(), thawed.adjacency());
+        assertNotSame(frozen.view().hierarchy(), thawed.hierarchy());
+        assertFalse(frozen.view().passability().get(1, 1));
+        assertTrue(thawed.passability().get(1, 1));
+        assertEquals(2, frozen.view().getValue(new Coord(1, 1)));
+        assertEquals(2, copy.getValue(new Coord(1, 1)));
+        assertEquals(0, thawed.getValue(new Coord(1, 1)));
+
+        // widening a shared store copies it too
+        copy.setValue(new Coord(4, 4), 1000);
+        assertEquals(1, frozen.view().getValue(new Coord(4, 4)));
+
+        FrozenGrid derived = frozen.with(new Coord(0, 4), 5);
+        assertEquals(5, derived.view().getValue(new Coord(0, 4)));
+        assertEquals(3, frozen.view().getValue(new Coord(0, 4)));
+        assertEquals(FrozenGrid.of(SolverTest.grid6), frozen);
+    }
+
+    /**
+     * Test that states on a snapshot solve without changing it.
+     */
+    @Test
+    public void testSolve() {
+        FrozenGrid frozen = FrozenGrid.of(SolverTest.grid6);
+        State s = frozen.toState(new Coord(0, 0));
+        assertEquals(28, new Solver(s).solve());
+        assertEquals(new Grid(SolverTest.grid6), frozen.view());
+        assertThrows(IndexOutOfBoundsException.class, () -> frozen.toState(new Coord(5, 0)));
+    }
+
+    /**
+     * Test that threads sharing a snapshot get the same distances as a
+     * private grid, in every path mode.
+     */
+    @Test
+    public void testSharedReads() throws InterruptedException, ExecutionException {
+        Random rng = new Random(49);
+        int[][] forest = PathModeTest.randomForest(rng, 40, 40, 0.2, 0.1);
+        FrozenGrid frozen = FrozenGrid.of(forest);
+        Grid reference = new Grid(forest);
+        int cells = 40 * 40;
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                long seed = rng.nextLong();
+                results.add(pool.submit(() -> {
+                    Random r = new Random(seed);
+                    for (int k = 0; k < 50; k++) {
+                        int from = r.nextInt(cells);
+                        int to = r.nextInt(cells);
+                        PathMode mode = PathMode.values()[r.nextInt(PathMode.values().length)];
+                        if (mode.distance(frozen.view(), from, to)
+                            != PathMode.BFS.distance(reference, from, to)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> f : results) {
+                assertTrue(f.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package lumberjack;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
 import java.util.function.Predicate;
 //
@@ -39,6 +45,22 @@ public class GridTest {
         }
     }
 
+    @Test
+    public void testPackedCoords() {
+        int[][] samples = {{0, 0}, {2, 3}, {-1, 5}, {7, -9}, {32767, -32768}};
+        for (int[] xy : samples) {
+            Coord c = new Coord(xy[0], xy[1]);
+            assertEquals(c, Coord.unpack(c.pack()));
+            assertEquals(xy[0], Coord.unpackX(Coord.pack(xy[0], xy[1])));
+            assertEquals(xy[1], Coord.unpackY(Coord.pack(xy[0], xy[1])));
+
+            Coord3 c3 = new Coord3(xy[0], xy[1], -xy[0] * 1000);
+            assertEquals(c3, Coord3.unpack(c3.pack()));
+            assertEquals(c3.hashCode(), Coord3.unpack(c3.pack()).hashCode());
+        }
+        assertTrue(!new Coord3(1, 2, 3).equals(new Coord(1, 2)));
+    }
+
     @Test
     public void testNewGrid() {
         Grid g = new Grid(grid1, h -> {
@@ -58,6 +80,218 @@ public class GridTest {
         });
     }
 
+    @Test
+    public void testCompactStorage() {
+        // forest heights fit in a byte
+        Grid g = new Grid(grid1);
+        assertTrue(g.getCellStore() instanceof CellStore.ByteStore);
+        assertTrue(new Grid(new int[][] {{-1, 300}}).getCellStore()
+                   instanceof CellStore.ShortStore);
+        assertTrue(new Grid(new int[][] {{0, 1 << 20}}).getCellStore()
+                   instanceof CellStore.IntStore);
+
+        // writing a value that doesn't fit widens the store in place
+        Grid copy = new Grid(g);
+        copy.setValue(new Coord(1, 1), 1000);
+        assertTrue(copy.getCellStore() instanceof CellStore.ShortStore);
+        copy.setValue(new Coord(0, 0), -100000);
+        assertTrue(copy.getCellStore() instanceof CellStore.IntStore);
+        assertEquals(1000, copy.getValue(new Coord(1, 1)));
+        assertEquals(-100000, copy.getValue(new Coord(0, 0)));
+        assertEquals(3, copy.getValue(new Coord(2, 0)));
+        assertEquals(1, copy.minPositive());
+
+        // the original is untouched, and equality ignores the store type
+        assertTrue(g.getCellStore() instanceof CellStore.ByteStore);
+        copy.setValue(new Coord(1, 1), 0);
+        copy.setValue(new Coord(0, 0), 0);
+        assertEquals(g, copy);
+        assertEquals(g.hashCode(), copy.hashCode());
+    }
+
+    /**
+     * Test that equality and hashing only depend on the values, whatever
+     * the stores, including sparse stores with chopped (zero) entries.
+     */
+    @Test
+    public void testEqualityAcrossStores() {
+        int[][] clearing = new int[80][80];
+        clearing[1][2] = 3;
+        clearing[40][41] = -1;
+        Grid a = new Grid(clearing);
+        Grid b = new Grid(a);
+        b.setValue(new Coord(1, 2), 0);
+        b.setValue(new Coord(7, 7), 0);
+        assertTrue(a.getCellStore().isSparse() && b.getCellStore().isSparse());
+        assertFalse(a.equals(b));
+
+        clearing[1][2] = 0;
+        Grid c = new Grid(clearing);
+        assertEquals(c, b);
+        assertEquals(b, c);
+        assertEquals(c.hashCode(), b.hashCode());
+
+        Grid narrow = new Grid(new int[][] {{0, 1}, {-1, 0}});
+        Grid wide = new Grid(new int[][] {{0, 1}, {-1, 40000}});
+        wide.setValue(new Coord(1, 1), 0);
+        assertTrue(wide.getCellStore() instanceof CellStore.IntStore);
+        assertEquals(narrow, wide);
+        assertEquals(narrow.hashCode(), wide.hashCode());
+        assertFalse(narrow.equals(new Grid(new int[][] {{0, 1, -1, 0}})));
+    }
+
+    @Test
+    public void testSparseStorage() {
+        // a 100x100 clearing with a handful of trees and a trench line
+        int[][] clearing = new int[100][100];
+        clearing[3][4] = 2;
+        clearing[50][50] = 1;
+        clearing[99][0] = 5;
+        clearing[70][20] = 1;
+        for (int y = 10; y < 90; y++) {
+            clearing[60][y] = -1;
+        }
+        Grid sparse = new Grid(clearing);
+        assertTrue(sparse.getCellStore().isSparse());
+
+        // a dense copy of the same cells
+        Grid dense = new Grid(100, 100, new CellStore.IntStore(100 * 100));
+        sparse.forEachCell((x, y, v) -> {
+            dense.setValue(new Coord(x, y), v);
+        });
+        assertEquals(dense, sparse);
+        assertEquals(dense.hashCode(), sparse.hashCode());
+
+        for (int round = 0; round < 3; round++) {
+            assertEquals(dense.minPositive(), sparse.minPositive());
+            assertEquals(dense.countPositive(), sparse.countPositive());
+            assertEquals(dense.anyPositive(), sparse.anyPositive());
+            for (int v = -1; v <= 5; v++) {
+                List<Integer> a = new ArrayList<>();
+                List<Integer> b = new ArrayList<>();
+                dense.forEachIndexOf(v, a::add);
+                sparse.forEachIndexOf(v, b::add);
+                assertEquals(a, b);
+            }
+            for (PathMode mode : PathMode.values()) {
+                int from = sparse.index(0, 0);
+                int to = sparse.index(50, 50);
+                assertEquals(mode.distance(dense, from, to), mode.distance(sparse, from, to));
+            }
+            // chop the shortest trees
+            Grid[] both = {dense, sparse};
+            for (Grid g : both) {
+                int h = g.minPositive();
+                List<Integer> trees = new ArrayList<>();
+                g.forEachIndexOf(h, trees::add);
+                for (int t : trees) {
+                    g.setValue(g.coord(t), 0);
+                }
+            }
+            assertTrue(sparse.getCellStore().isSparse());
+        }
+
+        // small grids stay dense
+        assertTrue(!new Grid(new int[10][10]).getCellStore().isSparse());
+    }
+
+    @Test
+    public void testOffHeapStorage() {
+        Random rng = new Random(38);
+        int[][] forest = PathModeTest.randomForest(rng, 20, 30, 0.15, 0.25);
+        forest[0][0] = 0;
+        Grid heap = new Grid(forest);
+        Grid direct = Grid.offHeap(forest);
+        assertTrue(direct.getCellStore() instanceof DirectStore);
+        assertEquals(heap, direct);
+        assertEquals(heap.toString(), direct.toString());
+
+        // widening stays off heap and closes the old buffer
+        DirectStore narrow = (DirectStore) direct.getCellStore();
+        direct.setValue(new Coord(0, 1), 1000);
+        assertTrue(narrow.isClosed());
+        assertTrue(direct.getCellStore() instanceof DirectStore);
+        assertEquals(2, ((DirectStore) direct.getCellStore()).bytesPerCell());
+        direct.setValue(new Coord(0, 1), forest[0][1]);
+        assertEquals(heap.getValue(new Coord(0, 0)), direct.getValue(new Coord(0, 0)));
+
+        // copies share the cells until they write, then move to the heap
+        Grid copy = new Grid(direct);
+        assertSame(direct.getCellStore(), copy.getCellStore());
+        copy.setValue(new Coord(0, 0), 1000);
+        assertTrue(copy.getCellStore() instanceof CellStore.ShortStore);
+        assertEquals(1000, copy.getValue(new Coord(0, 0)));
+        assertEquals(heap.getValue(new Coord(0, 0)), direct.getValue(new Coord(0, 0)));
+        copy.close();
+        assertFalse(((DirectStore) direct.getCellStore()).isClosed());
+
+        for (PathMode mode : PathMode.values()) {
+            int from = heap.index(0, 0);
+            int to = heap.index(19, 29);
+            assertEquals(mode.distance(heap, from, to), mode.distance(direct, from, to));
+        }
+        // a state shares the cells too, so solving doesn't copy the forest
+        State s = new State(direct, new Coord(0, 0));
+        assertSame(direct.getCellStore(), s.getGrid().getCellStore());
+        assertEquals(new State(heap, new Coord(0, 0)), s);
+        assertEquals(new Solver(new State(heap, new Coord(0, 0))).setLog(null).solve(),
+                     new Solver(s).setLog(null).solve());
+        State chopped = new State(s).chop(heap.coord(heap.index(19, 29)));
+        assertFalse(chopped.getGrid().getCellStore() instanceof DirectStore);
+        s.getGrid().close();
+        assertFalse(((DirectStore) direct.getCellStore()).isClosed());
+
+        // the grid that was copied moves to the heap on its first write
+        Grid written = Grid.offHeap(forest);
+        State onWritten = new State(written, new Coord(0, 0));
+        written.setValue(new Coord(0, 0), 5);
+        assertFalse(written.getCellStore() instanceof DirectStore);
+        assertEquals(0, onWritten.getHeight(new Coord(0, 0)));
+        onWritten.getGrid().close();
+
+        // a snapshot keeps its own cells
+        FrozenGrid snapshot = FrozenGrid.of(direct);
+        direct.close();
+        assertTrue(((DirectStore) direct.getCellStore()).isClosed());
+        assertEquals(heap, snapshot.view());
+        assertThrows(IllegalStateException.class, () -> direct.getValue(new Coord(0, 0)));
+
+        assertThrows(IllegalArgumentException.class,
+            () -> new DirectStore(Integer.MAX_VALUE / 2, 4));
+    }
+
+    /**
+     * Test that rendering matches formatting every cell with String.format.
+     */
+    @Test
+    public void testRender() throws IOException {
+        int[][] values = {
+            {0, 1, -1, 12345},
+            {-100000, 7, 0, 0}};
+        Grid g = new Grid(values);
+        String[] marks = {"", "X", "MARKER_TOO_WIDE"};
+        for (String mark : marks) {
+            StringBuilder expected = new StringBuilder();
+            int w = Math.max(7, mark.length());
+            for (int i = 0; i < values.length; i++) {
+                for (int j = 0; j < values[i].length; j++) {
+                    if (mark.length() > 0 && i == 1 && j == 2) {
+                        expected.append(String.format(" %" + w + "s", mark));
+                    } else {
+                        expected.append(String.format(" %" + w + "d", values[i][j]));
+                    }
+                }
+                expected.append("\n");
+            }
+            assertEquals(expected.toString(), g.annotateGrid(new Coord(1, 2), mark));
+
+            StringWriter out = new StringWriter();
+            g.render(out, new Coord(1, 2), mark);
+            assertEquals(expected.toString(), out.toString());
+        }
+        assertEquals(" 0\n", new Grid(new int[1][1]).toString());
+    }
+
     @Test
     public void testIteration() {
         // Test that we iterate over depth x width entries
@@ -70,6 +304,55 @@ public class GridTest {
         }
     }
 
+    @Test
+    public void testBulkScans() {
+        for (Grid g : allGrids) {
+            // forEachCell visits exactly what the iterator returns, in order
+            List<Coord3> visited = new ArrayList<>();
+            g.forEachCell((x, y, v) -> {
+                visited.add(new Coord3(x, y, v));
+            });
+            List<Coord3> iterated = new ArrayList<>();
+            for (Coord3 c : g) {
+                iterated.add(c);
+            }
+            assertEquals(iterated, visited);
+
+            int[] row = new int[g.getWidth() + 1];
+            for (int x = 0; x < g.getDepth(); x++) {
+                g.copyRow(x, row, 1);
+                for (int y = 0; y < g.getWidth(); y++) {
+                    assertEquals(g.getValue(new Coord(x, y)), row[y + 1]);
+                }
+            }
+        }
+
+        // grid1 = {{0,1,0}, {0,0,-1}, {3,0,0}}
+        Grid g = new Grid(grid1);
+        assertEquals(1, g.minPositive());
+        assertEquals(2, g.countPositive());
+        assertTrue(g.anyPositive());
+        List<Integer> flat = new ArrayList<>();
+        g.forEachIndexOf(0, flat::add);
+        assertEquals(Arrays.asList(0, 2, 3, 4, 7, 8), flat);
+
+        // the same scans over two byte cells, through the bulk row copy
+        Grid wide = new Grid(new int[][] {{0, 1000, -1}, {7, 0, 300}});
+        assertTrue(wide.getCellStore() instanceof CellStore.ShortStore);
+        assertEquals(7, wide.minPositive());
+        flat.clear();
+        wide.forEachIndexOf(0, flat::add);
+        assertEquals(Arrays.asList(0, 4), flat);
+        flat.clear();
+        wide.forEachIndexOf(1000, flat::add);
+        assertEquals(Arrays.asList(1), flat);
+
+        Grid noTrees = new Grid(new int[][] {{0, -1}, {0, 0}});
+        assertEquals(0, noTrees.minPositive());
+        assertEquals(0, noTrees.countPositive());
+        assertTrue(!noTrees.anyPositive());
+    }
+
     @Test
     public void testNeighbors() {
         Grid g = new Grid(grid1);
@@ -111,6 +394,72 @@ public class GridTest {
         assertEquals("nbs = " + nbs, nbs.size(), 3);
     }
 
+    @Test
+    public void testForEachNeighbor() {
+        // 4x4 grid with 4 interior cells
+        int[][] raw = {
+            {0, 1, 2, 3},
+            {4, 5, 6, 7},
+            {8, 9, 10, 11},
+            {12, 13, 14, 15}};
+        Grid g = new Grid(raw);
+
+        // every cell's neighbors agree with the Coord based neighbors
+        for (int x = 0; x < g.getDepth(); x++) {
+            for (int y = 0; y < g.getWidth(); y++) {
+                Set<Coord> viaIndex = new HashSet<>();
+                g.forEachNeighbor(g.index(x, y), (n, v) -> {
+                    return true;
+                }, n -> {
+                    viaIndex.add(new Coord(n / g.getWidth(), n % g.getWidth()));
+                });
+                Set<Coord> viaCoord = g.neighbors(new Coord(x, y), c3 -> {
+                    return true;
+                });
+                assertEquals(viaCoord, viaIndex);
+            }
+        }
+
+        // interior cell, keep only odd valued neighbors
+        List<Integer> odd = new ArrayList<>();
+        g.forEachNeighbor(g.index(1, 1), (n, v) -> {
+            return v % 2 == 1;
+        }, n -> {
+            odd.add(g.valueAt(n));
+        });
+        assertEquals(Arrays.asList(1, 9), odd);
+
+        // corner cell
+        List<Integer> corner = new ArrayList<>();
+        g.forEachNeighbor(g.index(3, 3), (n, v) -> {
+            return true;
+        }, corner::add);
+        assertEquals(Arrays.asList(g.index(2, 3), g.index(3, 2)), corner);
+    }
+
+    @Test
+    public void testAdjacency() {
+        // grid1 = {{0,1,0}, {0,0,-1}, {3,0,0}}: 8 walkable cells and 9
+        // adjacent walkable pairs
+        Grid g = new Grid(grid1);
+        CsrGraph csr = g.adjacency();
+        assertEquals(8, csr.numNodes());
+        assertEquals(18, csr.numEdges());
+        assertEquals(4, csr.distance(g.index(0, 0), g.index(2, 2)));
+        assertEquals(-2, csr.distance(g.index(0, 0), g.index(1, 2)));
+
+        // chopping only patches the open bits, the copy keeps its own
+        Grid copy = new Grid(g);
+        copy.setValue(new Coord(0, 1), 0);
+        assertTrue(copy.adjacency() != csr);
+        assertEquals(2, copy.adjacency().distance(g.index(0, 0), g.index(0, 2)));
+        assertEquals(-1, g.adjacency().distance(g.index(0, 0), g.index(0, 2)));
+
+        // turning the trench flat forces a rebuild
+        copy.setValue(new Coord(1, 2), 0);
+        assertEquals(9, copy.adjacency().numNodes());
+    }
+
     @Test
     public void testMinDistance() {
         Predicate<Coord3> flat = c3 -> {
@@ -168,4 +517,57 @@ public class GridTest {
         assertTrue(d.isPresent());
         assertEquals(d.get(), new Integer(2));
     }
+
+    /**
+     * Test that copies share the flat bitset and components until one of
+     * the grids is written.
+     */
+    @Test
+    public void testSharedFlatOverlays() {
+        Grid g = new Grid(new int[][] {{0, 1, 0}, {0, -1, 0}});
+        PassabilityBits bits = g.passability();
+        FlatComponents comps = g.components();
+        assertFalse(comps.connected(0, 2));
+
+        Grid copy = new Grid(g);
+        assertSame(bits, copy.passability());
+        assertSame(comps, copy.components());
+
+        copy.setValue(new Coord(0, 1), 0);
+        assertNotSame(bits, copy.passability());
+        assertTrue(copy.passability().get(1));
+        assertTrue(copy.components().connected(0, 2));
+        assertFalse(g.passability().get(1));
+        assertFalse(g.components().connected(0, 2));
+
+        // the original drops them too when it's written first
+        Grid other = new Grid(g);
+        g.setValue(new Coord(1, 1), 0);
+        assertSame(bits, other.passability());
+        assertFalse(other.passability().get(4));
+        assertTrue(g.passability().get(4));
+    }
+
+    /**
+     * Test that a chopped copy patches a copy of its parent's bitset
+     * instead of building one from the cells.
+     */
+    @Test
+    public void testChoppedBitsetIsDerived() {
+        Grid g = new Grid(new int[][] {{0, 1, 0}, {0, -1, 2}});
+        PassabilityBits bits = g.passability();
+        long builds = PassabilityBits.builds();
+
+        Grid copy = new Grid(g);
+        copy.setValue(new Coord(0, 1), 0);
+        assertNotSame(bits, copy.passability());
+        assertTrue(copy.passability().get(0, 1));
+        assertFalse(bits.get(0, 1));
+        Grid grandchild = new Grid(copy);
+        grandchild.setValue(new Coord(1, 2), 0);
+        assertTrue(grandchild.passability().get(1, 2));
+        assertTrue(new PassabilityBits(grandchild).sameAs(grandchild.passability()));
+        // only the check above scanned the cells
+        assertEquals(builds + 1, PassabilityBits.builds());
+    }
 }
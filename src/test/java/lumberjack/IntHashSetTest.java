@@ -0,0 +1,61 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+//
+import org.junit.Test;
+
+
+public class IntHashSetTest {
+
+    @Test
+    public void testSetAgainstHashSet() {
+        Random rand = new Random(26);
+        IntHashSet set = new IntHashSet();
+        Set<Integer> oracle = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            // small range so that there are plenty of duplicates and zeros
+            int k = rand.nextInt(2000) - 1000;
+            assertEquals(oracle.add(k), set.add(k));
+            assertEquals(oracle.size(), set.size());
+        }
+        for (int k = -1100; k < 1100; k++) {
+            assertEquals(oracle.contains(k), set.contains(k));
+        }
+
+        int[] elems = set.toArray();
+        Arrays.sort(elems);
+        int[] expected = oracle.stream().mapToInt(Integer::intValue).sorted().toArray();
+        assertTrue(Arrays.equals(expected, elems));
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+    }
+
+    @Test
+    public void testMapAgainstHashMap() {
+        Random rand = new Random(27);
+        IntIntHashMap map = new IntIntHashMap(4);
+        Map<Integer, Integer> oracle = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            int k = rand.nextInt(3000) - 1500;
+            int v = rand.nextInt();
+            map.put(k, v);
+            oracle.put(k, v);
+            assertEquals(oracle.size(), map.size());
+        }
+        for (int k = -1600; k < 1600; k++) {
+            assertEquals(oracle.containsKey(k), map.containsKey(k));
+            assertEquals((int) oracle.getOrDefault(k, -7), map.get(k, -7));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package lumberjack;
+
+import java.util.Random;
+
+
+/**
+ * Rough timing of every PathMode on a few families of forests.
+ *
+ * Not a test: run it by hand with
+ * {@code java -cp <classes> lumberjack.PathModeBenchmark [size] [queries]}
+ * and compare the microseconds per query of each mode. Each family is
+ * queried with the same random pairs of flat cells in every mode, after a
+ * warm-up round.
+ */
+public class PathModeBenchmark {
+
+    private static final String[] FAMILIES = {"open", "sparse", "cluttered", "rooms"};
+
+    /**
+     * Return a forest of the given family: open ground, 5% scattered
+     * trees, 30% trenches and trees, or rooms of open ground separated by
+     * trench walls with doorways.
+     */
+    static int[][] forest(String family, Random rand, int size) {
+        switch (family) {
+          case "open":
+            return PathModeTest.randomForest(rand, size, size, 0.0, 0.001);
+          case "sparse":
+            return PathModeTest.randomForest(rand, size, size, 0.0, 0.05);
+          case "cluttered":
+            return PathModeTest.randomForest(rand, size, size, 0.15, 0.15);
+          default:
+            int[][] forest = new int[size][size];
+            int room = 32;
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    boolean wall = x % room == room - 1 || y % room == room - 1;
+                    boolean door = (x % room) == room / 2 || (y % room) == room / 2;
+                    if (wall && !door) {
+                        forest[x][y] = -1;
+                    }
+                }
+            }
+            return forest;
+        }
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        System.out.println(String.format("%dx%d forests, %d queries, us/query", size, size,
+                                         queries));
+        for (String family : FAMILIES) {
+            Random rand = new Random(50);
+            Grid grid = new Grid(PathModeBenchmark.forest(family, rand, size));
+            int[] pairs = new int[2 * queries];
+            for (int k = 0; k < pairs.length; k++) {
+                do {
+                    pairs[k] = rand.nextInt(size * size);
+                } while (grid.valueAt(pairs[k]) != 0);
+            }
+
+            StringBuilder line = new StringBuilder(String.format("%-10s", family));
+            for (PathMode mode : PathMode.values()) {
+                PathModeBenchmark.time(mode, grid, pairs);
+                long nanos = PathModeBenchmark.time(mode, grid, pairs);
+                line.append(String.format(" %s=%.1f", mode, nanos / 1e3 / queries));
+            }
+            long expanded = 0;
+            for (int k = 0; k < pairs.length; k += 2) {
+                JumpPointSearch jps = new JumpPointSearch(grid, pairs[k], pairs[k + 1]);
+                jps.distance();
+                expanded += jps.expanded();
+            }
+            line.append(String.format(" (JPS expands %.1f jump points/query)",
+                                      (double) expanded / queries));
+            System.out.println(line);
+        }
+    }
+
+    private static long time(PathMode mode, Grid grid, int[] pairs) {
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int k = 0; k < pairs.length; k += 2) {
+            sum += mode.distance(grid, pairs[k], pairs[k + 1]);
+        }
+        if (sum == Long.MIN_VALUE) {
+            // keep the searches from being optimized away
+            System.out.println(sum);
+        }
+        return System.nanoTime() - start;
+    }
+}
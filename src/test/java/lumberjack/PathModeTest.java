@@ -0,0 +1,153 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+//
+import org.junit.Test;
+
+
+public class PathModeTest {
+
+    /**
+     * Return a random forest where each cell is a trench with probability
+     * `trenches`, a tree with probability `trees` and flat otherwise.
+     */
+    static int[][] randomForest(Random rand, int depth, int width,
+                                double trenches, double trees) {
+        int[][] forest = new int[depth][width];
+        for (int x = 0; x < depth; x++) {
+            for (int y = 0; y < width; y++) {
+                double r = rand.nextDouble();
+                if (r < trenches) {
+                    forest[x][y] = -1;
+                } else if (r < trenches + trees) {
+                    forest[x][y] = 1 + rand.nextInt(9);
+                }
+            }
+        }
+        return forest;
+    }
+
+    /**
+     * Check that every mode agrees with BFS between random pairs of cells.
+     */
+    private static void checkAgreement(Random rand, Grid g, int pairs) {
+        int cells = g.getDepth() * g.getWidth();
+        for (int k = 0; k < pairs; k++) {
+            int from = rand.nextInt(cells);
+            int to = rand.nextInt(cells);
+            int expected = PathMode.BFS.distance(g, from, to);
+            for (PathMode mode : PathMode.values()) {
+                assertEquals(mode + " " + g.coord(from) + " -> " + g.coord(to),
+                             expected, mode.distance(g, from, to));
+            }
+            assertEquals(expected >= 0, g.components().canReach(from, to));
+        }
+    }
+
+    @Test
+    public void testModesAgreeOnRandomForests() {
+        Random rand = new Random(30);
+        int[][] shapes = {{1, 1}, {1, 70}, {70, 1}, {5, 5}, {17, 63}, {20, 64},
+                          {33, 65}, {40, 130}};
+        double[][] densities = {{0.0, 0.0}, {0.1, 0.1}, {0.25, 0.1}, {0.05, 0.3}};
+        for (int[] shape : shapes) {
+            for (double[] density : densities) {
+                int[][] forest = randomForest(rand, shape[0], shape[1],
+                                              density[0], density[1]);
+                checkAgreement(rand, new Grid(forest), 30);
+            }
+        }
+    }
+
+    @Test
+    public void testHpaClusterSizes() {
+        Random rand = new Random(33);
+        for (int size = 1; size <= 6; size++) {
+            for (int trial = 0; trial < 10; trial++) {
+                Grid g = new Grid(randomForest(rand, 1 + rand.nextInt(25),
+                                               1 + rand.nextInt(25), 0.2, 0.15));
+                HpaGraph hpa = new HpaGraph(g, size);
+                int cells = g.getDepth() * g.getWidth();
+                for (int k = 0; k < 40; k++) {
+                    int from = rand.nextInt(cells);
+                    int to = rand.nextInt(cells);
+                    assertEquals("size " + size + " " + g.coord(from) + " -> " + g.coord(to),
+                                 PathMode.BFS.distance(g, from, to),
+                                 hpa.distance(g, from, to));
+                }
+
+                // chop a few cells and let the graph rebuild what changed
+                for (int k = 0; k < 5; k++) {
+                    int i = rand.nextInt(cells);
+                    g.setValue(g.coord(i), 0);
+                    hpa.invalidate(i);
+                    int from = rand.nextInt(cells);
+                    int to = rand.nextInt(cells);
+                    assertEquals(PathMode.BFS.distance(g, from, to), hpa.distance(g, from, to));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBfsAlwaysParallel() {
+        // threshold 1 sends every level through the thread pool
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ParallelBfs search = new ParallelBfs(1, pool);
+        Random rand = new Random(35);
+        for (int trial = 0; trial < 20; trial++) {
+            Grid g = new Grid(randomForest(rand, 1 + rand.nextInt(60),
+                                           1 + rand.nextInt(60), 0.15, 0.15));
+            int cells = g.getDepth() * g.getWidth();
+            for (int k = 0; k < 20; k++) {
+                int from = rand.nextInt(cells);
+                int to = rand.nextInt(cells);
+                assertEquals(PathMode.BFS.distance(g, from, to), search.distance(g, from, to));
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testJumpPointsOnOpenGround() {
+        int[][] forest = new int[100][150];
+        forest[99][149] = 7;
+        Grid g = new Grid(forest);
+        // corner to corner turns once, at the start of the destination's row
+        JumpPointSearch jps = new JumpPointSearch(g, 0, g.index(99, 149));
+        assertEquals(248, jps.distance());
+        assertEquals(2, jps.expanded());
+
+        // a wall with one gap adds the cells around the gap
+        for (int y = 0; y < 150; y++) {
+            forest[50][y] = y == 70 ? 0 : -1;
+        }
+        g = new Grid(forest);
+        jps = new JumpPointSearch(g, g.index(0, 140), g.index(99, 149));
+        assertEquals(PathMode.BFS.distance(g, g.index(0, 140), g.index(99, 149)),
+                     jps.distance());
+        assertTrue(jps.expanded() < 10);
+    }
+
+    @Test
+    public void testModesFollowGridUpdates() {
+        Random rand = new Random(31);
+        Grid g = new Grid(randomForest(rand, 30, 90, 0.15, 0.25));
+        checkAgreement(rand, g, 20);
+        for (int round = 0; round < 40; round++) {
+            // chop a tree, dig a trench or plant a tree, then compare again
+            Coord c = new Coord(rand.nextInt(g.getDepth()), rand.nextInt(g.getWidth()));
+            g.setValue(c, rand.nextInt(3) == 0 ? rand.nextInt(4) - 1 : 0);
+            checkAgreement(rand, g, 10);
+            // copies must be independent of the original
+            Grid copy = new Grid(g);
+            copy.setValue(c, -1);
+            checkAgreement(rand, copy, 5);
+            checkAgreement(rand, g, 5);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+//
+import org.junit.Test;
+
+
+public class RowScannerTest {
+
+    private static final int[] EXTREMES = {
+        Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -2, -1, 0, 1, 2,
+        Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+
+    /**
+     * Return a random row mixing forest-like values with extremes.
+     */
+    private static int[] randomRow(Random rand, int len) {
+        int[] row = new int[len];
+        for (int i = 0; i < len; i++) {
+            if (rand.nextInt(8) == 0) {
+                row[i] = EXTREMES[rand.nextInt(EXTREMES.length)];
+            } else {
+                row[i] = rand.nextInt(12) - 1;
+            }
+        }
+        return row;
+    }
+
+    @Test
+    public void testMinPositiveEquivalence() {
+        Random rand = new Random(29);
+        for (int trial = 0; trial < 2000; trial++) {
+            int[] row = randomRow(rand, rand.nextInt(150));
+            int from = row.length == 0 ? 0 : rand.nextInt(row.length);
+            int len = row.length - from;
+            assertEquals(RowScanner.SCALAR.minPositive(row, from, len),
+                         RowScanner.BRANCHLESS.minPositive(row, from, len));
+        }
+
+        // corner cases: no positive values at all, and only the extremes
+        int[] none = {0, -1, Integer.MIN_VALUE, 0};
+        assertEquals(Integer.MAX_VALUE, RowScanner.BRANCHLESS.minPositive(none, 0, 4));
+        assertEquals(1, RowScanner.BRANCHLESS.minPositive(EXTREMES, 0, EXTREMES.length));
+        int[] maxOnly = {Integer.MAX_VALUE, Integer.MIN_VALUE};
+        assertEquals(Integer.MAX_VALUE, RowScanner.BRANCHLESS.minPositive(maxOnly, 0, 2));
+    }
+
+    @Test
+    public void testEqualsMaskEquivalence() {
+        Random rand = new Random(30);
+        for (int trial = 0; trial < 2000; trial++) {
+            int[] row = randomRow(rand, 1 + rand.nextInt(200));
+            int from = rand.nextInt(row.length);
+            int len = row.length - from;
+            int v = rand.nextBoolean() ? row[from + rand.nextInt(len)]
+                : EXTREMES[rand.nextInt(EXTREMES.length)];
+
+            // start from garbage to check that every word is overwritten
+            long[] scalar = new long[4];
+            long[] branchless = new long[4];
+            Arrays.fill(scalar, -1L);
+            Arrays.fill(branchless, 0x5555555555555555L);
+            RowScanner.SCALAR.equalsMask(row, from, len, v, scalar);
+            RowScanner.BRANCHLESS.equalsMask(row, from, len, v, branchless);
+            int words = (len + 63) >>> 6;
+            assertTrue(Arrays.equals(Arrays.copyOf(scalar, words),
+                                     Arrays.copyOf(branchless, words)));
+
+            for (int i = 0; i < len; i++) {
+                boolean bit = (scalar[i >>> 6] & (1L << i)) != 0;
+                assertEquals(row[from + i] == v, bit);
+            }
+        }
+    }
+
+    /**
+     * Test that the short and byte kernels agree with the int kernels on
+     * the same values, widened.
+     */
+    @Test
+    public void testNarrowKernels() {
+        Random rand = new Random(36);
+        for (int trial = 0; trial < 1000; trial++) {
+            int len = 1 + rand.nextInt(200);
+            int[] ints = new int[len];
+            short[] shorts = new short[len];
+            byte[] bytes = new byte[len];
+            for (int i = 0; i < len; i++) {
+                int v = rand.nextInt(8) == 0 ? rand.nextInt(256) - 128 : rand.nextInt(12) - 1;
+                ints[i] = v;
+                shorts[i] = (short) v;
+                bytes[i] = (byte) v;
+            }
+            int from = rand.nextInt(len);
+            int n = len - from;
+            int v = rand.nextBoolean() ? ints[from + rand.nextInt(n)] : rand.nextInt(300) - 150;
+            for (RowScanner scanner : RowScanner.values()) {
+                int min = scanner.minPositive(ints, from, n);
+                assertEquals(min, scanner.minPositive(shorts, from, n));
+                assertEquals(min, scanner.minPositive(bytes, from, n));
+
+                long[] mask = new long[4];
+                long[] narrow = new long[4];
+                scanner.equalsMask(ints, from, n, v, mask);
+                Arrays.fill(narrow, -1L);
+                scanner.equalsMask(shorts, from, n, v, narrow);
+                int words = (n + 63) >>> 6;
+                assertTrue(Arrays.equals(Arrays.copyOf(mask, words),
+                                         Arrays.copyOf(narrow, words)));
+                Arrays.fill(narrow, -1L);
+                scanner.equalsMask(bytes, from, n, v, narrow);
+                assertTrue(Arrays.equals(Arrays.copyOf(mask, words),
+                                         Arrays.copyOf(narrow, words)));
+            }
+        }
+    }
+}
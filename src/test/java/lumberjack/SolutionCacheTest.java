@@ -0,0 +1,95 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Optional;
+import java.util.Random;
+//
+import org.junit.Test;
+
+
+public class SolutionCacheTest {
+
+    private static int[][] grid2 = {
+        {1,2},
+        {3,0},
+        {0,-1}};
+
+    /**
+     * Test the symmetries on a small grid and that they compose with their
+     * inverses to the identity.
+     */
+    @Test
+    public void testSymmetries() {
+        Grid g = new Grid(new int[][] {{1, 2, 3}, {4, 5, 6}});
+        assertEquals(new Grid(new int[][] {{4, 1}, {5, 2}, {6, 3}}), Symmetry.ROTATE_90.apply(g));
+        assertEquals(new Grid(new int[][] {{3, 6}, {2, 5}, {1, 4}}), Symmetry.ROTATE_270.apply(g));
+        assertEquals(new Grid(new int[][] {{6, 5, 4}, {3, 2, 1}}), Symmetry.ROTATE_180.apply(g));
+        assertEquals(new Grid(new int[][] {{1, 4}, {2, 5}, {3, 6}}), Symmetry.TRANSPOSE.apply(g));
+        assertEquals(new Coord(2, 0), Symmetry.ROTATE_90.apply(new Coord(1, 2), 2, 3));
+
+        Random rng = new Random(41);
+        int[][] forest = PathModeTest.randomForest(rng, 7, 11, 0.1, 0.3);
+        forest[2][3] = 0;
+        State state = new State(forest, new Coord(2, 3));
+        Symmetry canonical = state.canonicalSymmetry();
+        for (Symmetry s : Symmetry.values()) {
+            State image = state.transform(s);
+            assertEquals(state, image.transform(s.inverse()));
+            // every image has the same canonical form
+            assertEquals(state.transform(canonical),
+                         image.transform(image.canonicalSymmetry()));
+        }
+    }
+
+    /**
+     * Test that all images of a forest share one cache entry and that
+     * solutions come back in the caller's orientation.
+     */
+    @Test
+    public void testImagesHit() {
+        SolutionCache cache = new SolutionCache();
+        State state = new State(SolverTest.grid6, new Coord(0, 0));
+        for (Symmetry s : Symmetry.values()) {
+            State image = state.transform(s);
+            Optional<Path> path = cache.detailedSolve(image);
+            assertTrue(path.isPresent());
+            assertEquals(28, path.get().getDistance());
+            assertEquals(image, path.get().iterator().next().state);
+            assertFalse(path.get().head().get().state.hasTrees());
+        }
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.misses());
+        assertEquals(7, cache.hits());
+        assertEquals(7.0 / 8, cache.hitRate(), 1e-9);
+
+        // moving the lumberjack makes a different forest
+        assertEquals(new Solver(new State(SolverTest.grid6, new Coord(4, 4))).solve(),
+                     cache.solve(new State(SolverTest.grid6, new Coord(4, 4))));
+        assertEquals(2, cache.misses());
+    }
+
+    /**
+     * Test least recently used eviction.
+     */
+    @Test
+    public void testEviction() {
+        SolutionCache cache = new SolutionCache(2);
+        State a = new State(SolverTest.grid6, new Coord(0, 0));
+        State b = new State(grid2, new Coord(2, 0));
+        State c = new State(SolverTest.grid6, new Coord(3, 3));
+        assertEquals(28, cache.solve(a));
+        assertEquals(-1, cache.solve(b));
+        assertEquals(28, cache.solve(a));
+        cache.solve(c);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+
+        // b was least recently used
+        assertEquals(-1, cache.solve(b));
+        assertEquals(4, cache.misses());
+        assertEquals(2, cache.evictions());
+    }
+}
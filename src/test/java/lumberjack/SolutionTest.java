@@ -0,0 +1,100 @@
+package lumberjack;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+//
+import org.junit.Test;
+
+
+public class SolutionTest {
+
+    private static Map<Coord, Integer> edit(int x, int y, int h) {
+        Map<Coord, Integer> res = new HashMap<>();
+        res.put(new Coord(x, y), h);
+        return res;
+    }
+
+    /**
+     * Test that edits only redo the levels they can affect.
+     */
+    @Test
+    public void testResolveGrid6() {
+        Solution s = Solution.solve(new State(SolverTest.grid6, new Coord(0, 0)));
+        assertEquals(28, s.getDistance());
+
+        // the tallest tree becomes a trench: the first three chops are kept
+        Solution t = s.resolve(edit(4, 0, -1));
+        assertEquals(3, t.getReusedSteps());
+        State edited = new State(SolverTest.grid6, new Coord(0, 0)).setHeight(new Coord(4, 0), -1);
+        assertEquals(new Solver(edited).solve(), t.getDistance());
+
+        // a new tall tree in a trench: all four chops are kept
+        Solution u = t.resolve(edit(2, 2, 7));
+        assertEquals(3, u.getReusedSteps());
+        edited.setHeight(new Coord(2, 2), 7);
+        assertEquals(new Solver(edited).solve(), u.getDistance());
+
+        // a tree regrown on flat ground below every level: full solve
+        Solution v = u.resolve(edit(0, 1, 1));
+        assertEquals(0, v.getReusedSteps());
+        edited.setHeight(new Coord(0, 1), 1);
+        assertEquals(new Solver(edited).solve(), v.getDistance());
+
+        // nothing changed
+        assertEquals(v.getDistance(), v.resolve(new HashMap<>()).getDistance());
+    }
+
+    /**
+     * Test that a new trench on flat ground only redoes the levels from the
+     * first one whose paths walk across it.
+     */
+    @Test
+    public void testResolveNewTrench() {
+        Solution s = Solution.solve(new State(SolverTest.grid6, new Coord(0, 0)), null);
+
+        // off every saved route: all four chops are kept
+        Solution t = s.resolve(edit(1, 3, -1));
+        assertEquals(4, t.getReusedSteps());
+        assertEquals(28, t.getDistance());
+
+        // on the way from the second tree to the third: the first two
+        // chops are kept
+        Solution u = s.resolve(edit(0, 2, -1));
+        assertEquals(2, u.getReusedSteps());
+        State edited = new State(SolverTest.grid6, new Coord(0, 0)).setHeight(new Coord(0, 2), -1);
+        assertEquals(new Solver(edited).setLog(null).solve(), u.getDistance());
+        assertEquals(34, u.getDistance());
+
+        // walling in the start cell redoes everything
+        assertEquals(0, s.resolve(edit(0, 0, -1)).getReusedSteps());
+    }
+
+    /**
+     * Test chains of random edits against solving from scratch.
+     */
+    @Test
+    public void testResolveRandom() {
+        Random rng = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            int[][] forest = PathModeTest.randomForest(rng, 5, 6, 0.15, 0.3);
+            forest[0][0] = 0;
+            State state = new State(forest, new Coord(0, 0));
+            Solution s = Solution.solve(state);
+            assertEquals(new Solver(state).solve(), s.getDistance());
+            for (int k = 0; k < 3; k++) {
+                Map<Coord, Integer> edits = new HashMap<>();
+                for (int e = rng.nextInt(2); e >= 0; e--) {
+                    Coord c = new Coord(rng.nextInt(5), rng.nextInt(6));
+                    int h = rng.nextInt(8) - 1;
+                    edits.put(c, h);
+                    state.setHeight(c, h);
+                }
+                s = s.resolve(edits);
+                assertEquals(new Solver(state).solve(), s.getDistance());
+            }
+        }
+    }
+}
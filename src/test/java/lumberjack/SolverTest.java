@@ -1,7 +1,19 @@
 package lumberjack;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+//
 import org.junit.Test;
 
 
@@ -26,7 +38,7 @@ public class SolverTest {
         {0,0,0,0}};
 
     // 28 moves, linear
-    private static int[][] grid6 = {
+    static int[][] grid6 = {
         {0, 0, 0, 0, 3},
         {0, 2,-1, 0, 0},
         {0,-1,-1, 0, 0},
@@ -105,4 +117,173 @@ public class SolverTest {
         Solver solver = new Solver(initial);
         assertEquals(28, solver.solve());
     }
+
+    /**
+     * Test a large clearing with only three trees, which is stored
+     * sparsely, against the same forest stored densely.
+     */
+    @Test
+    public void testSolveClearing() {
+        int[][] clearing = new int[64][64];
+        clearing[0][5] = 1;
+        clearing[10][10] = 2;
+        clearing[63][63] = 3;
+        State sparse = new State(clearing, new Coord(0, 0));
+        assertEquals(5 + 15 + 106, new Solver(sparse).solve());
+
+        Grid dense = new Grid(64, 64, new CellStore.IntStore(64 * 64));
+        dense.setValue(new Coord(0, 5), 1);
+        dense.setValue(new Coord(10, 10), 2);
+        dense.setValue(new Coord(63, 63), 3);
+        assertEquals(5 + 15 + 106, new Solver(new State(dense, new Coord(0, 0))).solve());
+    }
+
+    /**
+     * Test that every path finding mode yields the same solutions.
+     */
+    @Test
+    public void testSolvePathModes() {
+        for (PathMode mode : PathMode.values()) {
+            assertEquals(4, new Solver(
+                new State(grid1, new Coord(0, 0)).setPathMode(mode)).solve());
+            assertEquals(-1, new Solver(
+                new State(moat, new Coord(0, 0)).setPathMode(mode)).solve());
+            assertEquals(28, new Solver(
+                new State(grid6, new Coord(0, 0)).setPathMode(mode)).solve());
+            assertEquals(28, new Solver(
+                new State(dense, new Coord(4, 4)).setPathMode(mode)).solve());
+        }
+    }
+
+    /**
+     * Test that the walking route of a solution is a chain of unit moves
+     * over flat ground through every chopped tree.
+     */
+    @Test
+    public void testRoute() {
+        State initial = new State(grid6, new Coord(0, 0));
+        Path path = new Solver(initial).detailedSolve().get();
+        for (StateJump sj : path) {
+            assertFalse(sj.hasMoves());
+        }
+        assertWalks(initial, path);
+
+        StringBuilder expected = new StringBuilder();
+        for (StateJump sj : path) {
+            expected.append(expected.length() == 0 ? "" : " -> ").append(sj.state.getPos());
+        }
+        assertEquals(expected.toString(), path.toString());
+    }
+
+    /**
+     * Test that the route of a search that records moves is decoded from
+     * them, is a valid walk, and follows the path through symmetries.
+     */
+    @Test
+    public void testRecordedRoute() {
+        State initial = new State(grid6, new Coord(0, 0)).setRecordRoutes(true);
+        Path path = new Solver(initial).detailedSolve().get();
+        assertEquals(28, path.getDistance());
+        Iterator<StateJump> it = path.iterator();
+        it.next();
+        while (it.hasNext()) {
+            assertTrue(it.next().hasMoves());
+        }
+        assertWalks(initial, path);
+
+        for (Symmetry s : Symmetry.values()) {
+            Path t = path.transform(s);
+            List<Coord> expected = new ArrayList<>();
+            for (Coord c : path.route()) {
+                expected.add(s.apply(c, grid6.length, grid6[0].length));
+            }
+            List<Coord> actual = new ArrayList<>();
+            for (Coord c : t.route()) {
+                actual.add(c);
+            }
+            assertEquals(expected, actual);
+            assertWalks(initial.transform(s), t);
+        }
+    }
+
+    // check that the route of `path` from `initial` is a chain of unit
+    // moves over flat ground through every chopped tree
+    private static void assertWalks(State initial, Path path) {
+        List<Coord> route = new ArrayList<>();
+        for (Coord c : path.route()) {
+            route.add(c);
+        }
+        assertEquals(path.getDistance() + 1, route.size());
+        assertEquals(initial.getPos(), route.get(0));
+
+        State walked = new State(initial);
+        int k = 1;
+        Iterator<StateJump> chops = path.iterator();
+        chops.next();
+        Coord nextChop = chops.next().state.getPos();
+        for (int i = 1; i < route.size(); i++) {
+            Coord a = route.get(i - 1);
+            Coord b = route.get(i);
+            assertEquals(1, Math.abs(a.getX() - b.getX()) + Math.abs(a.getY() - b.getY()));
+            if (b.equals(nextChop)) {
+                walked.chop(b);
+                k++;
+                nextChop = chops.hasNext() ? chops.next().state.getPos() : null;
+            } else {
+                assertEquals(0, walked.getHeight(b));
+            }
+        }
+        assertEquals(path.numSteps(), k);
+        assertFalse(walked.hasTrees());
+    }
+
+    /**
+     * Test that a search resumed from a checkpoint at any step finds the
+     * same solution as an uninterrupted one.
+     */
+    @Test
+    public void testCheckpointResume() throws IOException {
+        File file = File.createTempFile("solver", ".ckpt");
+        file.deleteOnExit();
+        State initial = new State(dense, new Coord(4, 4)).setPathMode(PathMode.CSR);
+        Path expected = new Solver(initial).setCheckpoint(file, 0).detailedSolve().get();
+        assertEquals(28, expected.getDistance());
+
+        // the last checkpoint holds the final frontier
+        assertEquals(expected.toString(), Solver.resume(file).detailedSolve().get().toString());
+
+        // interrupt after every step in turn
+        Set<Path> start = new HashSet<>();
+        start.add(new Path(new StateJump(initial, 0)));
+        List<Set<Path>> frontiers = new ArrayList<>();
+        Solver.search(start, (frontier, step) -> {
+            frontiers.add(frontier);
+        }, null);
+        for (Set<Path> frontier : frontiers) {
+            Checkpoint.write(file, initial, frontier);
+            Solver resumed = Solver.resume(file);
+            Path p = resumed.detailedSolve().get();
+            assertEquals(expected.getDistance(), p.getDistance());
+            assertEquals(expected.toString(), p.toString());
+            assertEquals(initial, p.iterator().next().state);
+        }
+
+        // the first chop is the start cell itself
+        State onTree = new State(new int[][] {{1, 0, 2}}, new Coord(0, 0));
+        frontiers.clear();
+        start.clear();
+        start.add(new Path(new StateJump(onTree, 0)));
+        Solver.search(start, (frontier, step) -> {
+            frontiers.add(frontier);
+        }, null);
+        for (Set<Path> frontier : frontiers) {
+            Checkpoint.write(file, onTree, frontier);
+            assertEquals(2, Solver.resume(file).solve());
+        }
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+        assertThrows(ForestFormatException.class, () -> Solver.resume(file));
+    }
 }
@@ -2,6 +2,7 @@ package lumberjack;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
@@ -38,12 +39,6 @@ public class StateTest {
         {0,1,2},
         {7,10,3},
         {6,5,4}};
-    private static int[][] grid6 = {
-        {0, 0, 0, 0, 3},
-        {0, 2,-1, 0, 0},
-        {0,-1,-1, 0, 0},
-        {0, 0, 0, 0, 0},
-        {4, 0, 0, 0, 1}};
 
     @Test
     public void testNewState() {
@@ -164,6 +159,28 @@ public class StateTest {
         assertTrue(!s.findPath(new Coord(0, 2)).isPresent());
     }
 
+    @Test
+    public void testFirstUnreachableTree() {
+        // every tree can be reached in turn
+        State s = new State(grid1, new Coord(0, 0));
+        assertFalse(s.firstUnreachableTree().isPresent());
+        s = new State(grid5, new Coord(0, 0));
+        assertFalse(s.firstUnreachableTree().isPresent());
+        s = new State(new int[][] {{0, 1, 2}}, new Coord(0, 0));
+        assertFalse(s.firstUnreachableTree().isPresent());
+
+        // the tree of height 1 is hidden behind a taller tree
+        s = new State(new int[][] {{0, 2, 1}}, new Coord(0, 0));
+        assertEquals(new Coord(0, 2), s.firstUnreachableTree().get());
+
+        // the tree of height 3 is behind a trench, the others are fine
+        int[][] trench = {
+            {0, 1, -1, 3},
+            {2, 0, -1, 0}};
+        s = new State(trench, new Coord(1, 1));
+        assertEquals(new Coord(0, 3), s.firstUnreachableTree().get());
+    }
+
     @Test
     public void testChop() {
         // level grid1
@@ -222,7 +239,7 @@ public class StateTest {
         assertEquals(8, d);
 
         // 28 steps to level grid6
-        s = new State(grid6, new Coord(0, 0));
+        s = new State(SolverTest.grid6, new Coord(0, 0));
         System.out.println(s);
         nextStates = s.nextStates();
         d = 0;
@@ -239,4 +256,26 @@ public class StateTest {
         // verify the distance traveled
         assertEquals(28, d);
     }
+
+    /**
+     * Test that walled off trees are skipped, and that each next state
+     * patches its own copy of the parent's components.
+     */
+    @Test
+    public void testNextStatesComponents() {
+        State walled = new State(new int[][] {{0, -1, 1}}, new Coord(0, 0));
+        assertTrue(walled.nextStates().isEmpty());
+
+        State s = new State(new int[][] {{0, 1, 0}, {-1, -1, 2}}, new Coord(0, 0));
+        FlatComponents parent = s.getGrid().components();
+        assertFalse(parent.connected(0, 2));
+        Set<StateJump> next = s.nextStates();
+        assertEquals(1, next.size());
+        State child = next.iterator().next().state;
+        FlatComponents comps = child.getGrid().components();
+        assertNotSame(parent, comps);
+        assertTrue(comps.connected(0, 2));
+        assertFalse(parent.connected(0, 2));
+        assertTrue(comps.canReach(1, 5));
+    }
 }